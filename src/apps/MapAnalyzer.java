@@ -22,7 +22,11 @@
  * SOFTWARE.
  */
 package apps;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
 import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
 
 import image.SavableImage;
 import javafx.concurrent.Task;
@@ -37,7 +41,7 @@ import javafx.scene.chart.XYChart.Series;
 import javafx.scene.control.Label;
 import javafx.scene.control.Separator;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Region;
@@ -46,9 +50,10 @@ import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import maps.DistortionStatistics;
 import maps.Projection;
 import utils.Flag;
-import utils.Math2;
+import utils.Histogram;
 import utils.MutableDouble;
 import utils.Procedure;
 
@@ -70,6 +75,13 @@ public class MapAnalyzer extends MapApplication {
 	private static final int CHART_WIDTH = 420;
 	private static final int FINE_SAMP_NUM = 2048;
 	private static final double GLOBE_RES = .01;
+	private static final int BAND_HEIGHT = 16; //the number of rows each thread does at a time
+	private static final int COARSE_SAMP_NUM = 128; //the resolution at which to estimate the average area distortion
+	private static final double SIZE_CONTOUR = LN_10/10; //contour the size by decibels
+	private static final double SHAPE_CONTOUR = LN_10/20; //contour the shape by semidecibels
+	private static final double MAX_DISTORTION = 25; //the distortion beyond which getDistortionAt gives up
+	private static final double[] SIZE_FACTORS = colorFactors(SIZE_CONTOUR); //exp(.6*contour) for every contour, centred on zero
+	private static final double[] SHAPE_FACTORS = colorFactors(SHAPE_CONTOUR);
 	
 	private static final FileChooser.ExtensionFilter[] RASTER_TYPES = {
 			new FileChooser.ExtensionFilter("PNG", "*.png"),
@@ -78,7 +90,7 @@ public class MapAnalyzer extends MapApplication {
 	
 	private Flag cropAtIDL;
 	private MutableDouble graticuleSpacing;
-	private Text avgSizeDistort, avgShapeDistort;
+	private Text avgSizeDistort, avgShapeDistort, pctShapeDistort;
 	private ImageView mapDisplay;
 	private Region charts;
 	private BarChart<String, Number> sizeChart;
@@ -141,12 +153,14 @@ public class MapAnalyzer extends MapApplication {
 	private Region buildTextDisplay() {
 		this.avgSizeDistort = new Text("\u2026");
 		this.avgShapeDistort = new Text("\u2026");
+		this.pctShapeDistort = new Text("\u2026");
 		final Text txt = new Text("Blue areas are dilated, red areas are compressed, and black areas are stretched.");
 		txt.setWrappingWidth(GUI_WIDTH);
 		
 		VBox box = new VBox(3,
 				new HBox(new Label("Average size distortion: "),avgSizeDistort),
 				new HBox(new Label("Average shape distortion: "),avgShapeDistort),
+				new HBox(new Label("95th percentile shape distortion: "),pctShapeDistort),
 				txt);
 		box.setAlignment(Pos.CENTER_LEFT);
 		return box;
@@ -215,7 +229,7 @@ public class MapAnalyzer extends MapApplication {
 		loadParameters();
 		return calculateGraphicTask(imgSize, getProjection(), cropAtIDL.isSet(),
 				graticuleSpacing.get(), mapDisplay, detailedAnalysis ? sizeChart : null,
-				shapeChart, avgShapeDistort, avgShapeDistort);
+				shapeChart, avgSizeDistort, avgShapeDistort, pctShapeDistort);
 	}
 	
 	/**
@@ -230,64 +244,42 @@ public class MapAnalyzer extends MapApplication {
 	 * @param shapeChart - The optional BarChart to update with the stretch histogram.
 	 * @param avgSizeDistort - The optional Text element to fill with the average size distortion.
 	 * @param avgShapeDistort - The optional Text element to fill with the average shape distortion.
+	 * @param pctShapeDistort - The optional Text element to fill with the 95th percentile shape
+	 * 		distortion.
 	 * @return The new graphic as a SavableImage.
 	 */
 	public static Task<SavableImage> calculateGraphicTask(int imgSize,
 			Projection proj, boolean crop, double gratSpace, ImageView mapDisplay,
 			BarChart<String, Number> sizeChart, BarChart<String, Number> shapeChart,
-			Text avgSizeDistort, Text avgShapeDistort) { //TODO graticule still does nothing; just paste it in!
+			Text avgSizeDistort, Text avgShapeDistort, Text pctShapeDistort) { //TODO graticule still does nothing; just paste it in!
 		return new Task<SavableImage>() {
-			double[][][] distortionG; //some variables that might get used later
-			double sizeDistort, shapeDistort;
+			DistortionStatistics distortionG; //some variables that might get used later
 			WritableImage graphic;
 			
 			protected SavableImage call() {
 				updateProgress(-1, 1);
 				updateMessage("Calculating distortion\u2026");
 				
-				double[][][] distortionM = proj.calculateDistortion(proj.map(imgSize, crop),
-						this::isCancelled, (p) -> updateProgress(p, 2)); //calculate
-				if (sizeChart != null) {
-					distortionG = proj.calculateDistortion(Projection.globe(GLOBE_RES));
-					sizeDistort = Math2.stdDev(distortionG[0]);
-					shapeDistort = Math2.mean(distortionG[1]);
+				final int width, height;
+				if (proj.getWidth() >= proj.getHeight()) {
+					width = imgSize;
+					height = (int)Math.max(Math.round(imgSize*proj.getHeight()/proj.getWidth()), 1);
+				}
+				else {
+					width = (int)Math.max(Math.round(imgSize*proj.getWidth()/proj.getHeight()), 1);
+					height = imgSize;
 				}
 				
-				if (isCancelled()) 	return null;
-				updateProgress(1, 2);
-				updateMessage("Generating graphic\u2026");
-				
-				graphic = new WritableImage(
-						distortionM[0][0].length, distortionM[0].length);
-				PixelWriter writer = graphic.getPixelWriter();
-				for (int y = 0; y < distortionM[0].length; y ++) {
-					if (isCancelled()) 	return null;
-					updateProgress(1 + (double)y/distortionM[0].length, 2);
-					for (int x = 0; x < distortionM[0][y].length; x ++) {
-						final double sizeDistort = distortionM[0][y][x], shapeDistort = distortionM[1][y][x];
-						final double sizeContour = Math.round(sizeDistort/(LN_10/10))*LN_10/10; //contour the size by decibels
-						final double shapeContour = Math.round(shapeDistort/(LN_10/20))*LN_10/20; //contour the size by semidecibels
-						if (Double.isNaN(sizeDistort) || Double.isNaN(shapeDistort)) {
-							writer.setArgb(x, y, 0);
-							continue;
-						}
-						
-						final int r, g, b;
-						if (sizeDistort < 0) { //if compressing
-							r = (int)(255.9*Math.exp(-shapeContour*.6));
-							g = (int)(255.9*Math.exp(-shapeContour*.6)*Math.exp(sizeContour*.6));
-							b = g;
-						}
-						else { //if dilating
-							r = (int)(255.9*Math.exp(-shapeContour*.6)*Math.exp(-sizeContour*.6));
-							g = r; //I find .6 to be a rather visually pleasing sensitivity
-							b = (int)(255.9*Math.exp(-shapeContour*.6));
-						}
-						
-						final int argb = ((((((0xFF)<<8)+r)<<8)+g)<<8)+b;
-						writer.setArgb(x, y, argb);
-					}
+				final int[] pixels = drawDistortion(proj, width, height, crop, null,
+						this::isCancelled, (p) -> updateProgress(p, 1)); //calculate and colour it all at once
+				if (sizeChart != null) {
+					distortionG = DistortionStatistics.of(proj, Projection.globe(GLOBE_RES));
 				}
+				if (isCancelled() || pixels == null) 	return null;
+				
+				graphic = new WritableImage(width, height);
+				graphic.getPixelWriter().setPixels(0, 0, width, height,
+						PixelFormat.getIntArgbInstance(), pixels, 0, width);
 				
 				return SavableImage.savable(graphic);
 			}
@@ -298,40 +290,133 @@ public class MapAnalyzer extends MapApplication {
 				
 				if (sizeChart != null) {
 					sizeChart.getData().clear();
-					sizeChart.getData().add(histogram(distortionG[0],
-							-LN_10, LN_10, 20, Math::exp));
+					sizeChart.getData().add(histogram(
+							distortionG.getSizeHistogram(-LN_10, LN_10, 20), Math::exp));
 					shapeChart.getData().clear();
-					shapeChart.getData().add(histogram(distortionG[1],
-							   0.0, LN_10, 20, Math::exp));
+					shapeChart.getData().add(histogram(
+							distortionG.getShapeHistogram(  0.0, LN_10, 20), Math::exp));
 					
-					avgSizeDistort.setText(format(sizeDistort/LN_10*10)+"dB");
-					avgShapeDistort.setText(format(shapeDistort/LN_10*10)+"dB");
+					avgSizeDistort.setText(format(distortionG.getSizeStdDev()/LN_10*10)+"dB");
+					avgShapeDistort.setText(format(distortionG.getShapeMean()/LN_10*10)+"dB");
+					pctShapeDistort.setText(format(distortionG.getShapePercentile(95)/LN_10*10)+"dB");
 				}
 			}
 		};
 	}
 	
 	
-	private static final Series<String, Number> histogram(double[][] values,
-			double min, double max, int num, DoubleUnaryOperator converter) {
-		int[] hist = new int[num+1]; //this array is the histogram values for min, min+dx, ..., max-dx, max
-		int tot = 0;
-		for (double[] row: values) {
-			for (double x: row) {
-				if (Double.isFinite(x)) {
-					final int i = (int)Math.round((x-min)/(max-min)*num);
-					if (i >= 0 && i <= num)
-						hist[i] ++;
-					tot ++;
+	/**
+	 * Calculate the distortion at every pixel of a map and colour it in, in one pass over the
+	 * image. The image is broken into bands of rows, which are done in parallel. The average area
+	 * distortion, which everything is relative to, is estimated beforehand on a coarse grid.
+	 * @param proj - The projection to analyze.
+	 * @param width - The width of the graphic in pixels.
+	 * @param height - The height of the graphic in pixels.
+	 * @param crop - Should points at extreme longitudes be hidden?
+	 * @param fields - An optional float[2][width*height] in which to also store the size and shape
+	 * 		distortion at every pixel, row by row. Null if they aren't needed.
+	 * @param cancelation - Returns true if we should stop.
+	 * @param progressTracker - Gets told what fraction of the image is done.
+	 * @return The pixels in ARGB, row by row, or null if it was canceled.
+	 */
+	public static int[] drawDistortion(Projection proj, int width, int height, boolean crop,
+			float[][] fields, BooleanSupplier cancelation, DoubleConsumer progressTracker) {
+		final double avgArea = averageAreaDistortion(proj, crop);
+		
+		final int[] pixels = new int[width*height];
+		final int numBands = (height + BAND_HEIGHT - 1)/BAND_HEIGHT;
+		final AtomicInteger bandsDone = new AtomicInteger(0);
+		IntStream.range(0, numBands).parallel().forEach((band) -> {
+			if (cancelation.getAsBoolean())
+				return;
+			for (int y = band*BAND_HEIGHT; y < Math.min((band+1)*BAND_HEIGHT, height); y ++) {
+				for (int x = 0; x < width; x ++) {
+					final double[] coords = proj.inverse(
+							((x+0.5)/width-1/2.)*proj.getWidth(), (1/2.-(y+0.5)/height)*proj.getHeight(),
+							null, crop);
+					double sizeDistort = Double.NaN, shapeDistort = Double.NaN;
+					if (coords != null) {
+						final double[] dists = proj.getDistortionAt(coords);
+						sizeDistort = dists[0] - avgArea;
+						shapeDistort = dists[1];
+					}
+					pixels[y*width + x] = distortionColor(sizeDistort, shapeDistort);
+					if (fields != null) {
+						fields[0][y*width + x] = (float)sizeDistort;
+						fields[1][y*width + x] = (float)shapeDistort;
+					}
+				}
+			}
+			progressTracker.accept((double)bandsDone.incrementAndGet()/numBands);
+		});
+		return cancelation.getAsBoolean() ? null : pixels;
+	}
+	
+	
+	private static double averageAreaDistortion(Projection proj, boolean crop) { //estimate the mean of the log area scale over the map
+		final int w = COARSE_SAMP_NUM, h = COARSE_SAMP_NUM;
+		return IntStream.range(0, h).parallel().mapToObj((y) -> {
+			double sum = 0;
+			int num = 0;
+			for (int x = 0; x < w; x ++) {
+				final double[] coords = proj.inverse(
+						((x+0.5)/w-1/2.)*proj.getWidth(), (1/2.-(y+0.5)/h)*proj.getHeight(),
+						null, crop);
+				if (coords != null) {
+					final double area = proj.getDistortionAt(coords)[0];
+					if (Double.isFinite(area)) {
+						sum += area;
+						num ++;
+					}
 				}
 			}
+			return new double[] {sum, num};
+		}).reduce((a, b) -> new double[] {a[0]+b[0], a[1]+b[1]})
+				.map((t) -> (t[1] > 0) ? t[0]/t[1] : 0).orElse(0.);
+	}
+	
+	
+	private static int distortionColor(double sizeDistort, double shapeDistort) { //look up the colour for this much distortion
+		if (Double.isNaN(sizeDistort) || Double.isNaN(shapeDistort))
+			return 0;
+		final int i = Math.max(0, Math.min(SIZE_FACTORS.length-1,
+				(int)Math.round(sizeDistort/SIZE_CONTOUR) + SIZE_FACTORS.length/2));
+		final int j = Math.max(0, Math.min(SHAPE_FACTORS.length-1,
+				(int)Math.round(shapeDistort/SHAPE_CONTOUR) + SHAPE_FACTORS.length/2));
+		final double shapeFactor = SHAPE_FACTORS[SHAPE_FACTORS.length-1-j]; //the tables are symmetric, so flip the index to negate the exponent
+		
+		final int r, g, b;
+		if (sizeDistort < 0) { //if compressing
+			r = (int)(255.9*shapeFactor);
+			g = (int)(255.9*shapeFactor*SIZE_FACTORS[i]);
+			b = g;
 		}
+		else { //if dilating
+			r = (int)(255.9*shapeFactor*SIZE_FACTORS[SIZE_FACTORS.length-1-i]);
+			g = r; //I find .6 to be a rather visually pleasing sensitivity
+			b = (int)(255.9*shapeFactor);
+		}
+		return (0xFF << 24) | (r << 16) | (g << 8) | b;
+	}
+	
+	
+	private static double[] colorFactors(double contour) { //exp(.6*x) for every contour x that getDistortionAt can produce
+		final int max = (int)Math.ceil(2*MAX_DISTORTION/contour); //area distortion can double once it's made relative
+		final double[] factors = new double[2*max+1];
+		for (int i = 0; i < factors.length; i ++)
+			factors[i] = Math.exp((i-max)*contour*.6);
+		return factors;
+	}
+	
+	
+	private static final Series<String, Number> histogram(Histogram hist,
+			DoubleUnaryOperator converter) { //turn a histogram into a bar chart series
 		Series<String, Number> output = new Series<String, Number>();
-		for (int i = 0; i <= num; i ++) {
-			double x = converter.applyAsDouble(i*(max-min)/num+min);
+		for (int i = 0; i < hist.getNumBins(); i ++) {
+			double x = converter.applyAsDouble(hist.getBinCenter(i));
 			output.getData().add(new Data<String, Number>(
 					Double.toString(Math.round(100*x)/100.),
-					(double)hist[i]/tot*100));
+					hist.getFraction(i)*100));
 		}
 		return output;
 	}
@@ -0,0 +1,272 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package apps;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import maps.DistortionStatistics;
+import maps.Projection;
+import utils.QuantileSketch;
+
+/**
+ * A script that evaluates a bunch of projections at once and writes their statistics to
+ * output/comparison.csv and output/comparison.json. Give it projection names to only do those,
+ * and follow a name with =a,b,c to use those parameters instead of the defaults (the same name
+ * may appear more than once, for several variants). With no arguments, it does every projection.
+ * 
+ * @author jkunimune
+ */
+public class MapComparer {
+	
+	private static final double DECIBEL = Math.log(10)/10;
+	
+	private static final double GLOBE_RES = .005; //the sample spacing for distortion, in radians
+	private static final int ROUND_TRIP_STRIDE = 16; //use every this-many samples to test the inverse and time things
+	
+	private static final String[] COLUMNS = { "projection", "parameters", "points",
+			"size_stddev_dB", "size_p05_dB", "size_p95_dB", "shape_mean_dB", "shape_p50_dB",
+			"shape_p95_dB", "roundtrip_p50_rad", "roundtrip_p99_rad", "roundtrip_max_rad",
+			"roundtrip_failures", "forward_per_s", "inverse_per_s", "timing_method", "timing_threads" };
+	private static final String TIMING_METHOD = "batch wall clock, after warmup"; //how the throughput columns were measured
+	
+	private static final Map<Double, double[][][]> SAMPLES = new ConcurrentHashMap<Double, double[][][]>(); //sample sets shared by every projection
+	
+	
+	
+	public static void main(String[] args) throws FileNotFoundException {
+		final long startTime = System.currentTimeMillis();
+		
+		final Map<Projection, List<double[]>> variants = chooseVariants(args);
+		final double[][][] points = samples(GLOBE_RES);
+		
+		final List<Projection> projs = new ArrayList<Projection>(variants.keySet());
+		final List<List<Object[]>> results = new ArrayList<List<Object[]>>();
+		for (int i = 0; i < projs.size(); i ++)
+			results.add(null);
+		projs.parallelStream().forEach((proj) -> { //different projections can go at the same time,
+			final List<Object[]> rows = new ArrayList<Object[]>();
+			for (double[] params: variants.get(proj)) //but the variants of each must take turns
+				rows.add(evaluate(proj, params, points));
+			results.set(projs.indexOf(proj), rows);
+		});
+		
+		for (int i = 0; i < projs.size(); i ++) //then time them one at a time, so they don't compete for the processor
+			for (int j = 0; j < results.get(i).size(); j ++)
+				time(projs.get(i), variants.get(projs.get(i)).get(j), points, results.get(i).get(j));
+		
+		new File("output").mkdirs();
+		try (PrintStream csv = new PrintStream(new File("output/comparison.csv"));
+				PrintStream json = new PrintStream(new File("output/comparison.json"))) {
+			csv.println(String.join(",", COLUMNS));
+			json.println("[");
+			boolean first = true;
+			for (List<Object[]> rows: results) {
+				for (Object[] row: rows) {
+					final String[] csvCells = new String[row.length];
+					final String[] jsonCells = new String[row.length];
+					for (int j = 0; j < row.length; j ++) {
+						csvCells[j] = csvValue(row[j]);
+						jsonCells[j] = "\""+COLUMNS[j]+"\": "+jsonValue(row[j]);
+					}
+					csv.println(String.join(",", csvCells));
+					json.print((first ? "" : ",\n") + "\t{" + String.join(", ", jsonCells) + "}");
+					first = false;
+				}
+			}
+			json.println("\n]");
+		}
+		
+		System.out.println("Total time elapsed: " + (System.currentTimeMillis() - startTime) / 1000. + "s");
+	}
+	
+	
+	/**
+	 * Get a sample of points spread evenly over the globe, reusing it if someone has asked for it
+	 * before.
+	 * @param res - The spacing between points in radians.
+	 * @return The points, as from Projection.globe().
+	 */
+	public static double[][][] samples(double res) {
+		return SAMPLES.computeIfAbsent(res, Projection::globe);
+	}
+	
+	
+	private static Map<Projection, List<double[]>> chooseVariants(String[] args) { //figure out which projections and parameters the arguments mean
+		final Map<Projection, List<double[]>> variants = new LinkedHashMap<Projection, List<double[]>>();
+		if (args.length == 0) {
+			for (Projection[] category: MapApplication.ALL_PROJECTIONS)
+				for (Projection proj: category)
+					variants.computeIfAbsent(proj, (p) -> new ArrayList<double[]>())
+							.add(proj.getDefaultParameters());
+			return variants;
+		}
+		
+		for (String arg: args) {
+			final String name = arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg;
+			final Projection proj = findProjection(name);
+			final double[] params;
+			if (arg.contains("=")) {
+				params = Arrays.stream(arg.substring(arg.indexOf('=')+1).split(","))
+						.mapToDouble(Double::parseDouble).toArray();
+				if (params.length != proj.getNumParameters())
+					throw new IllegalArgumentException(proj+" takes "+proj.getNumParameters()+
+							" parameters, not "+params.length+".");
+			}
+			else {
+				params = proj.getDefaultParameters();
+			}
+			variants.computeIfAbsent(proj, (p) -> new ArrayList<double[]>()).add(params);
+		}
+		return variants;
+	}
+	
+	
+	private static Projection findProjection(String name) {
+		for (Projection[] category: MapApplication.ALL_PROJECTIONS)
+			for (Projection proj: category)
+				if (proj.getName().equalsIgnoreCase(name))
+					return proj;
+		throw new IllegalArgumentException("I don't know any projection called "+name+".");
+	}
+	
+	
+	/**
+	 * Measure everything there is to measure about one projection with one set of parameters.
+	 * @param proj - The projection, which should not be in use by anyone else.
+	 * @param params - The parameters to give it.
+	 * @param points - The sample on which to measure it.
+	 * @return The values of the report columns, in order.
+	 */
+	private static Object[] evaluate(Projection proj, double[] params, double[][][] points) {
+		proj.setParameters(params);
+		final DistortionStatistics distortion = DistortionStatistics.of(proj, points);
+		
+		final QuantileSketch error = new QuantileSketch();
+		double maxError = 0;
+		int tested = 0, failures = 0;
+		for (double[][] row: points) {
+			for (int i = 0; i < row.length; i += ROUND_TRIP_STRIDE) {
+				final double[] p = proj.project(row[i][0], row[i][1]);
+				if (!proj.isInvertable() || !Double.isFinite(p[0]) || !Double.isFinite(p[1]))
+					continue;
+				
+				final double[] s = proj.inverse(p[0], p[1]);
+				tested ++;
+				if (s == null || !Double.isFinite(s[0]) || !Double.isFinite(s[1])) {
+					failures ++;
+					continue;
+				}
+				final double err = greatCircleDistance(row[i], s);
+				error.add(err);
+				maxError = Math.max(maxError, err);
+			}
+		}
+		
+		final String paramString = proj.isParametrized() ? Arrays.toString(params) : "";
+		System.out.println(proj+" "+paramString+": done");
+		return new Object[] { proj.getName(), paramString, distortion.getCount(),
+				distortion.getSizeStdDev()/DECIBEL, distortion.getSizePercentile(5)/DECIBEL,
+				distortion.getSizePercentile(95)/DECIBEL, distortion.getShapeMean()/DECIBEL,
+				distortion.getShapePercentile(50)/DECIBEL, distortion.getShapePercentile(95)/DECIBEL,
+				error.quantile(.50), error.quantile(.99), (tested > failures) ? maxError : Double.NaN,
+				(tested > 0) ? (double)failures/tested : Double.NaN,
+				Double.NaN, Double.NaN, TIMING_METHOD, 1 }; //the throughput gets filled in later, by time()
+	}
+	
+	
+	/**
+	 * Measure how many points per second one projection with one set of parameters can project
+	 * and invert, by timing the whole strided sample at once on this thread. It runs through the
+	 * sample once beforehand so that the JIT has had a look at it.
+	 * @param proj - The projection, which should not be in use by anyone else.
+	 * @param params - The parameters to give it.
+	 * @param points - The sample on which to time it.
+	 * @param row - The report row from evaluate(), whose throughput columns this will fill in.
+	 */
+	private static void time(Projection proj, double[] params, double[][][] points, Object[] row) {
+		proj.setParameters(params);
+		final List<double[]> inputs = new ArrayList<double[]>();
+		for (double[][] line: points)
+			for (int i = 0; i < line.length; i += ROUND_TRIP_STRIDE)
+				inputs.add(line[i]);
+		final double[][] outputs = new double[inputs.size()][], roundTrips = new double[inputs.size()][];
+		
+		for (int pass = 0; pass < 2; pass ++) { //the first pass is just warmup; the second one overwrites it
+			final long t0 = System.nanoTime();
+			for (int i = 0; i < outputs.length; i ++)
+				outputs[i] = proj.project(inputs.get(i)[0], inputs.get(i)[1]);
+			final long t1 = System.nanoTime();
+			row[row.length-4] = outputs.length/((t1 - t0)/1e9);
+			
+			if (!proj.isInvertable())
+				continue;
+			int numInverse = 0;
+			final long t2 = System.nanoTime();
+			for (int i = 0; i < outputs.length; i ++) {
+				if (Double.isFinite(outputs[i][0]) && Double.isFinite(outputs[i][1])) {
+					roundTrips[i] = proj.inverse(outputs[i][0], outputs[i][1]);
+					numInverse ++;
+				}
+			}
+			final long t3 = System.nanoTime();
+			row[row.length-3] = (numInverse > 0) ? numInverse/((t3 - t2)/1e9) : Double.NaN;
+		}
+	}
+	
+	
+	private static double greatCircleDistance(double[] a, double[] b) { //the haversine formula
+		final double sinDLat = Math.sin((b[0] - a[0])/2), sinDLon = Math.sin((b[1] - a[1])/2);
+		return 2*Math.asin(Math.min(1, Math.sqrt(
+				sinDLat*sinDLat + Math.cos(a[0])*Math.cos(b[0])*sinDLon*sinDLon)));
+	}
+	
+	
+	private static String csvValue(Object value) {
+		if (value instanceof String)
+			return "\""+((String) value).replace("\"", "\"\"")+"\"";
+		else if (value instanceof Double)
+			return Double.isFinite((Double) value) ? String.format(Locale.US, "%.6g", value) : "";
+		else
+			return value.toString();
+	}
+	
+	
+	private static String jsonValue(Object value) {
+		if (value instanceof String)
+			return "\""+((String) value).replace("\\", "\\\\").replace("\"", "\\\"")+"\"";
+		else if (value instanceof Double)
+			return Double.isFinite((Double) value) ? String.format(Locale.US, "%.6g", value) : "null";
+		else
+			return value.toString();
+	}
+}
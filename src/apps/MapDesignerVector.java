@@ -30,16 +30,17 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import org.xml.sax.SAXException;
 
+import image.PathRasterizer;
 import image.SVGMap;
 import image.SavableImage;
-import image.SVGMap.Command;
 import image.SVGMap.Path;
 import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Separator;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.StackPane;
@@ -47,7 +48,6 @@ import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import maps.Projection;
-import utils.Math2;
 
 /**
  * An application to make vector oblique aspects of map projections
@@ -64,9 +64,11 @@ public class MapDesignerVector extends MapApplication {
 	
 	private static final int DEF_MAX_VTX = 5000;
 	private static final int FAST_MAX_VTX = 2000;
+	private static final int SAVE_RES = 2000; //the effective resolution of saved maps, for resampling purposes
 	
 	private static final FileChooser.ExtensionFilter[] VECTOR_TYPES = {
-			new FileChooser.ExtensionFilter("SVG", "*.svg") };
+			new FileChooser.ExtensionFilter("SVG", "*.svg"),
+			new FileChooser.ExtensionFilter("SVGZ", "*.svgz") };
 	
 	private Region aspectSelector;
 	private double[] aspect;
@@ -122,7 +124,7 @@ public class MapDesignerVector extends MapApplication {
 	private Task<Void> setInputTask(File file) {
 		return new Task<Void>() {
 			protected Void call() throws IOException, SAXException, ParserConfigurationException {
-				input = new SVGMap(file);
+				input = SVGMap.load(file);
 				return null;
 			}
 			
@@ -161,23 +163,25 @@ public class MapDesignerVector extends MapApplication {
 	
 	private Task<SavableImage> calculateTaskForUpdate() {
 		int maxVtx = this.getParamsChanging() ? FAST_MAX_VTX : DEF_MAX_VTX;
-		int step = input.length()/maxVtx+1;
-		return calculateTask(step, true);
+		double pixelAngle = 2*Math.PI/IMG_SIZE; //the size of a pixel on the globe, roughly
+		double tolerance = Math.max(input.toleranceForBudget(maxVtx), pixelAngle*pixelAngle/2); //don't keep anything smaller than half a pixel
+		return calculateTask(tolerance, true);
 	}
 	
 	private Task<SavableImage> calculateTaskForSaving() {
-		return calculateTask(1, false);
+		return calculateTask(0, false);
 	}
 	
-	private Task<SavableImage> calculateTask(int step, boolean render) {
+	private Task<SavableImage> calculateTask(double tolerance, boolean render) {
 		loadParameters();
-		return calculateTask(step, input, getProjection(), aspect.clone(), render ? viewer : null);
+		return calculateTask(tolerance, input, getProjection(), aspect.clone(), render ? viewer : null);
 	}
 	
 	/**
 	 * Prepare a task that will load a new map from the given projection and return it as a savable
 	 * image, and perhaps render it to a StackPane.
-	 * @param step - The number of points to skip on the given input, if you're in a rush.
+	 * @param tolerance - The minimum importance of vertices to keep, in square radians, if you're
+	 * 		in a rush. 0 keeps everything.
 	 * @param input - The equirectangular input image.
 	 * @param proj - The projection to do the mapping.
 	 * @param aspect - The oblique axis for the map.
@@ -185,46 +189,23 @@ public class MapDesignerVector extends MapApplication {
 	 * 		be rendered.
 	 * @return A Task upon which will produce and return the SavableImage when called.
 	 */
-	public static Task<SavableImage> calculateTask(int step,
+	public static Task<SavableImage> calculateTask(double tolerance,
 			SVGMap input, Projection proj, double[] aspect, StackPane viewer) {
 		return new Task<SavableImage>() {
-			private Canvas rendered;
+			private ImageView rendered;
 			
 			protected SavableImage call() {
 				updateProgress(-1, 1);
 				updateMessage("Generating map\u2026");
 				
 				List<Path> theMap = new LinkedList<Path>();
+				final double precision = proj.getSize()/(viewer != null ? IMG_SIZE : SAVE_RES); //the pixel size, more or less
 				int i = 0;
-				for (Path pathS: input) {
+				final double[][] visible = proj.getVisibleBoxes(aspect); //skip anything the projection won't show
+				for (Path pathP: input.project(tolerance, visible,
+						(arc) -> proj.projectPath(arc, aspect, precision))) { //project each arc, cutting at interruptions
 					updateProgress(i, input.numCurves());
-					if (pathS.size() <= step) 	continue; //don't bother drawing singular points
-					Path pathP = new Path();
-					int j = 0;
-					while (j < pathS.size()) {
-						Command cmdS = pathS.get(j);
-						Command cmdP = new Command(cmdS.type, new double[cmdS.args.length]);
-						for (int k = 0; k < cmdS.args.length; k += 2) {
-							double[] coords = proj.project(cmdS.args[k+1], cmdS.args[k], aspect);
-							cmdP.args[k] =
-									Math.max(Math.min(coords[0], proj.getWidth()), -proj.getWidth());
-							cmdP.args[k+1] =
-									Math.max(Math.min(coords[1], proj.getHeight()), -proj.getHeight());
-							if (Double.isNaN(cmdP.args[k]) || Double.isNaN(cmdP.args[k+1]))
-								System.err.println(proj+" returns "+cmdP.args[k]+","+cmdP.args[k+1]+" at "+cmdS.args[k+1]+","+cmdS.args[k]+"!");
-						}
-						pathP.add(cmdP); //TODO: if I was smart, I would divide landmasses that hit an interruption so that I didn't get those annoying lines that cross the map, and then run adaptive resampling to make sure the cuts look clean and not polygonal (e.g. so Antarctica extends all the way to the bottom), but that sounds really hard.
-						
-						for (int k = 0; k < step; k ++) { //increment j by at least 1 and at most step
-							if (k != 0 && (j >= pathS.size() - 1 || pathS.get(j).type == 'M'
-									|| pathS.get(j).type == 'Z'))
-								break; //but pause for every moveto and closepath, and for the last command in the path
-							else
-								j ++;
-						}
-					}
 					theMap.add(pathP);
-					
 					i ++;
 				}
 				
@@ -241,7 +222,8 @@ public class MapDesignerVector extends MapApplication {
 						width = (int)Math.max(IMG_SIZE/proj.getAspectRatio(), 1);
 						height = IMG_SIZE;
 					}
-					rendered = drawImage(theMap, proj.getWidth(), proj.getHeight(), width, height);
+					rendered = new ImageView(
+							drawImage(theMap, proj.getWidth(), proj.getHeight(), width, height));
 				}
 				
 				return new SavableImage() {
@@ -267,63 +249,16 @@ public class MapDesignerVector extends MapApplication {
 	}
 	
 	
-	private static Canvas drawImage(Iterable<Path> paths, double inWidth, double inHeight,
-			int outWidth, int outHeight) { //parse the SVG path, with a few modifications
-		final double mX = inWidth/2;
-		final double mY = inHeight/2;
-		Canvas c = new Canvas(outWidth, outHeight);
-		GraphicsContext g = c.getGraphicsContext2D();
-		g.clearRect(0, 0, c.getWidth(), c.getHeight());
-		g.beginPath();
-		for (Path path: paths) {
-			double startX = 0, startY = 0, lastX = 0, lastY = 0;
-			for (Command cmd: path) {
-				final double[] args = new double[cmd.args.length];
-				for (int i = 0; i < args.length; i ++)
-					if (i%2 == 0)
-						args[i] = Math2.linInterp(cmd.args[i], -mX, mX, 0, c.getWidth());
-					else
-						args[i] = Math2.linInterp(cmd.args[i], -mY, mY, c.getHeight(), 0);
-				
-				switch (cmd.type) {
-				case 'M':
-					startX = args[0];
-					startY = args[1];
-					g.moveTo(args[0], args[1]);
-					break;
-				case 'L':
-				case 'T':
-					for (int i = 0; i < args.length; i += 2)
-						if (Math.hypot(args[i+0]-lastX, args[i+1]-lastY) < outWidth/4) // break lines that are too long
-							g.lineTo(args[i+0], args[i+1]); //TODO: I really need to actually look for interruptions or something
-						else
-							g.moveTo(args[i+0], args[i+1]);
-					break;
-				case 'Q':
-				case 'S':
-					for (int i = 0; i < args.length; i += 4)
-						g.quadraticCurveTo(args[i+0], args[i+1], args[i+2], args[i+3]);
-					break;
-				case 'C':
-					for (int i = 0; i < args.length; i += 6)
-						g.bezierCurveTo(
-								args[i+0], args[i+1], args[i+2], args[i+3], args[i+4], args[i+5]);
-					break;
-				case 'Z':
-					if (Math.hypot(startX-lastX, startY-lastY) < outWidth/4)
-						g.lineTo(startX, startY);
-					break;
-				default:
-					System.err.println("Unsupported movement type: "+cmd.type); //I don't do arcs; they just don't work well with projection
-				}
-				
-				if (args.length > 0) {
-					lastX = args[0];
-					lastY = args[1];
-				}
-			}
-		}
-		g.stroke();
-		return c;
+	private static WritableImage drawImage(Iterable<Path> paths, double inWidth, double inHeight,
+			int outWidth, int outHeight) { //rasterise the paths in the background, so the GUI never has to
+		final PathRasterizer rasterizer = new PathRasterizer(outWidth, outHeight);
+		for (Path path: paths)
+			rasterizer.addPath(path, -inWidth/2, inHeight/2, outWidth/inWidth, outHeight/inHeight);
+		final int[] pixels = rasterizer.stroke(1, 0xFF000000); //thin black lines, like the Canvas used to draw
+		
+		final WritableImage image = new WritableImage(outWidth, outHeight); //this isn't on screen yet, so any thread may write to it
+		image.getPixelWriter().setPixels(0, 0, outWidth, outHeight,
+				PixelFormat.getIntArgbInstance(), pixels, 0, outWidth);
+		return image;
 	}
 }
@@ -23,10 +23,17 @@
  */
 package apps;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.function.Function;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
 
@@ -41,11 +48,14 @@ import javafx.scene.chart.XYChart.Series;
 import javafx.stage.Stage;
 import maps.Arbitrary;
 import maps.Cylindrical;
+import maps.DistortionStatistics;
 import maps.Misc;
 import maps.Polyhedral;
 import maps.Projection;
 import maps.Tobler;
 import maps.WinkelTripel;
+import utils.Checkpoint;
+import utils.ParallelObjective;
 import utils.linalg.Matrix;
 import utils.linalg.Vector;
 
@@ -63,14 +73,37 @@ public class MapOptimizer extends Application {
 			WinkelTripel.WINKEL_TRIPEL, Polyhedral.TETRAPOWER, Polyhedral.AUTHAPOWER };
 	private static final double[] WEIGHTS = { 0., .125, .25, .375, .5, .625, .75, .875, 1. };
 	private static final int NUM_BRUTE_FORCE = 30;
-	private static final int NUM_BFGS_ITERATE = 7;
+	private static final int MAX_BFGS_ITERATE = 20; //the most iterations to do on any one fidelity
+	private static final int MAX_FINE_BFGS_ITERATE = 10; //the most iterations left for GLOBE once the coarser samples have done what they can
+	private static final double GRADIENT_TOLERANCE = 1e-4; //stop when the gradient norm gets this small,
+	private static final double STEP_TOLERANCE = 1e-3; //or when the step size gets this small,
+	private static final double IMPROVEMENT_TOLERANCE = 1e-5; //or when the objective improves by less than this fraction
+	private static final boolean MULTI_FIDELITY = true; //should the sweep and early iterations use coarser samples?
 	private static final double GOLDSTEIN_C = 0.5;
 	private static final double BACKTRACK_TAU = 0.5;
 	private static final double BACKTRACK_ALF0 = 4;
 	private static final double DEL_X = 0.05;
+	private static final int LINE_SEARCH_BATCH = Runtime.getRuntime().availableProcessors(); //the number of step sizes to try at once
+	private static final long CHECKPOINT_INTERVAL = 60000; //the minimum time between checkpoint saves, in milliseconds
+	private static final int GRID_CHUNK = 4*Runtime.getRuntime().availableProcessors(); //the number of sweep points to do between checkpoints
+	private static final boolean PARETO_MODE = false; //should we search for the whole front at once with NSGA-II instead of one weight at a time?
+	private static final int PARETO_POPULATION = 40;
+	private static final int PARETO_GENERATIONS = 30;
+	private static final int PARETO_RESOLUTION = 10000; //the number of distinguishable values of each parameter, for the memo
+	private static final long PARETO_SEED = 4; //so that the search is reproducible
+	private static final double CROSSOVER_ETA = 15; //the distribution index for simulated binary crossover
+	private static final double MUTATION_ETA = 20; //the distribution index for polynomial mutation
+	private static final double SHAPE_PERCENTILE = 0; //if positive, optimise this percentile of the shape distortion instead of its mean
 	private LineChart<Number, Number> chart;
 	
-	private static final double[][][] GLOBE = Projection.hemisphere(0.01);
+	private static final double GLOBE_RES = 0.01;
+	private static final double[] SAMPLE_RES = MULTI_FIDELITY ?
+			new double[] {0.04, 0.02, GLOBE_RES} : new double[] {GLOBE_RES}; //the sample spacings from coarsest to finest; the sweep uses the first, and BFGS the rest
+	private static final double[][][] GLOBE = Projection.hemisphere(GLOBE_RES);
+	private static final double[][][][] SAMPLES = Arrays.stream(SAMPLE_RES)
+			.mapToObj((res) -> (res == GLOBE_RES) ? GLOBE : Projection.hemisphere(res))
+			.toArray(double[][][][]::new);
+	private static final String SAMPLE_TAG = Arrays.toString(SAMPLE_RES); //goes in the checkpoint keys, so a run with different samples won't pick up this one's state
 	
 	
 	public static final void main(String[] args) {
@@ -87,11 +120,19 @@ public class MapOptimizer extends Application {
 		chart.setCreateSymbols(true);
 		chart.setAxisSortingPolicy(SortingPolicy.NONE);
 		
+		final boolean resume = getParameters().getRaw().contains("--resume"); //pick up where the last run left off?
+		final Checkpoint checkpoint = new Checkpoint(new File("output/optimizer.checkpoint"),
+				CHECKPOINT_INTERVAL, resume);
+		
 		PrintStream log = new PrintStream(new File("output/parameters.txt"));
+		PrintStream trace = new PrintStream(new FileOutputStream(
+				new File("output/optimizer trace.jsonl"), resume)); //one JSON object per line about each BFGS iteration and run
 		
 		chart.getData().add(analyzeAll(EXISTING_PROJECTIONS));
 		for (Projection p: PROJECTIONS_TO_OPTIMIZE)
-			chart.getData().add(optimiseFamily(p, log));
+			chart.getData().add(PARETO_MODE ?
+					paretoFamily(p, log, checkpoint) : optimiseFamily(p, log, trace, checkpoint));
+		checkpoint.save();
 		
 		System.out.println("Total time elapsed: " + (System.currentTimeMillis() - startTime) / 60000. + "m");
 		
@@ -103,6 +144,7 @@ public class MapOptimizer extends Application {
 		
 		stage.show();
 		log.close();
+		trace.close();
 	}
 	
 	
@@ -125,26 +167,80 @@ public class MapOptimizer extends Application {
 	}
 	
 	
+	private static double[] measureDistortion(Projection proj, double[] params) {
+		return measureDistortion(proj, params, GLOBE);
+	}
+	
+	private static double[] measureDistortion(Projection proj, double[] params, double[][][] points) { //the size and shape scores that the weights trade off
+		proj.setParameters(params);
+		final DistortionStatistics stats = DistortionStatistics.of(proj, points);
+		if (SHAPE_PERCENTILE > 0)
+			return new double[] {stats.getSizeStdDev(), stats.getShapePercentile(SHAPE_PERCENTILE)};
+		else
+			return new double[] {stats.getSizeStdDev(), stats.getShapeMean()};
+	}
+	
+	
 	private static final double weighDistortion(double[] distortions, double weight) {
 		return distortions[0]*weight + distortions[1]*(1-weight);
 	}
 	
 	
-	private static Series<Number, Number> optimiseFamily(
-			Projection proj, PrintStream log) { //optimize and plot some maps of a given family
+	private static Series<Number, Number> optimiseFamily(Projection proj, PrintStream log,
+			PrintStream trace, Checkpoint checkpoint) { //optimize and plot some maps of a given family
 		System.out.println("Optimizing " + proj.getName());
 		
-		final double[][] best = new double[WEIGHTS.length][proj.getNumParameters()];
+		final double[][] grid = bruteForceGrid(proj.getParameterValues());
+		final String gridKey = proj.getName()+SAMPLE_TAG+"/grid";
+		double[] progress = checkpoint.get(gridKey); //the number of points done, then the size and shape distortion of each
+		if (progress == null || progress.length != 1 + 2*grid.length)
+			progress = new double[1 + 2*grid.length];
+		final double[] gridProgress = progress;
+		final ThreadLocal<Projection> copies = ThreadLocal.withInitial(proj::copy); //every thread gets its own copy of the projection
+		for (int start = (int)gridProgress[0]; start < grid.length; start += GRID_CHUNK) { //measure the sweep once, roughly; it's the same for every weight
+			final int end = Math.min(start + GRID_CHUNK, grid.length);
+			IntStream.range(start, end).parallel().forEach((i) -> {
+				final double[] distortion = measureDistortion(copies.get(), grid[i], SAMPLES[0]);
+				gridProgress[1 + 2*i] = distortion[0];
+				gridProgress[2 + 2*i] = distortion[1];
+			});
+			gridProgress[0] = end;
+			checkpoint.put(gridKey, gridProgress); //and save it a bit at a time
+		}
+		final double[][] gridDistortion = new double[grid.length][];
+		for (int i = 0; i < grid.length; i ++)
+			gridDistortion[i] = new double[] { gridProgress[1 + 2*i], gridProgress[2 + 2*i] };
+		System.out.println("BF = [");
+		for (int i = 0; i < grid.length; i ++) {
+			for (double param: grid[i])
+				System.out.print(param+", ");
+			System.out.println(gridDistortion[i][0]+", "+gridDistortion[i][1]+";");
+		}
+		System.out.println("];");
 		
-		for (int k = 0; k < WEIGHTS.length; k ++) {
+		final ByteArrayOutputStream[] transcripts = new ByteArrayOutputStream[WEIGHTS.length];
+		final double[][] best = IntStream.range(0, WEIGHTS.length).parallel().mapToObj((k) -> { //then refine each weight at the same time
 			final double weighFactor = WEIGHTS[k];
-			double[] currentBest = bruteForceMinimise(
-					(params) -> weighDistortion(proj.avgDistortion(GLOBE, params), weighFactor),
-					proj.getParameterValues());
-			best[k] = bfgsMinimise(
-					(params) -> weighDistortion(proj.avgDistortion(GLOBE, params), weighFactor),
-					currentBest);
-		}
+			final String weightKey = proj.getName()+SAMPLE_TAG+"/"+weighFactor;
+			transcripts[k] = new ByteArrayOutputStream();
+			final double[] done = checkpoint.get(weightKey+"/best");
+			if (done != null && done.length == proj.getNumParameters())
+				return done; //unless it was already done
+			final ParallelObjective<?>[] objectives = IntStream.range(
+					Math.min(1, SAMPLES.length-1), SAMPLES.length).mapToObj((l) ->
+							new ParallelObjective<Projection>(proj::copy, (copy, params) ->
+									weighDistortion(measureDistortion(copy, params, SAMPLES[l]), weighFactor)))
+					.toArray(ParallelObjective<?>[]::new); //one objective for each sample set, from coarsest to finest
+			final double[] currentBest = bruteForceMinimise(grid, gridDistortion, weighFactor);
+			final double[] bestForWeight = bfgsMinimise(objectives, currentBest,
+					new PrintStream(transcripts[k]), trace, proj.getName(), weighFactor,
+					checkpoint, weightKey+"/bfgs");
+			checkpoint.put(weightKey+"/best", bestForWeight);
+			checkpoint.remove(weightKey+"/bfgs");
+			return bestForWeight;
+		}).toArray(double[][]::new);
+		for (ByteArrayOutputStream transcript: transcripts)
+			System.out.print(transcript); //print the refinements in order, now that they can't get mixed up
 		
 		final Series<Number, Number> output = new Series<Number, Number>();
 		output.setName(proj.getName());
@@ -156,7 +252,7 @@ public class MapOptimizer extends Application {
 			for (int i = 0; i < proj.getNumParameters(); i++)
 				log.print("t" + i + "=" + bestForWeight[i] + "; "); //print the parameters used
 			
-			double[] distortion = proj.avgDistortion(GLOBE, bestForWeight);
+			double[] distortion = measureDistortion(proj, bestForWeight);
 			log.println("\t(" + distortion[0] + ", " + distortion[1] + ")"); //print the resulting distortion
 			
 			output.getData().add(new Data<Number, Number>(distortion[0], distortion[1])); //plot it
@@ -166,37 +262,227 @@ public class MapOptimizer extends Application {
 	}
 	
 	
+	private static Series<Number, Number> paretoFamily(Projection proj, PrintStream log,
+			Checkpoint checkpoint) { //find and plot the nondominated maps of a given family
+		System.out.println("Searching " + proj.getName());
+		
+		final double[][] bounds = proj.getParameterValues();
+		final String memoKey = proj.getName()+"/memo";
+		final DistortionMemo memo = new DistortionMemo(proj, bounds, GLOBE);
+		if (checkpoint.contains(memoKey))
+			memo.load(checkpoint.get(memoKey)); //with the same seed, a resumed search will follow the same path, but much faster
+		final Random rng = new Random(PARETO_SEED);
+		
+		List<double[]> population = new ArrayList<double[]>();
+		population.add(memo.quantise(proj.getDefaultParameters()));
+		while (population.size() < PARETO_POPULATION) { //start with the default and a bunch of random ones
+			final double[] params = new double[bounds.length];
+			for (int i = 0; i < params.length; i ++)
+				params[i] = bounds[i][0] + rng.nextDouble()*(bounds[i][1] - bounds[i][0]);
+			population.add(memo.quantise(params));
+		}
+		double[][] scores = memo.getAll(population);
+		
+		int numRequested = population.size();
+		for (int g = 0; g < PARETO_GENERATIONS; g ++) {
+			final int[] rank = new int[population.size()];
+			final double[] crowding = new double[population.size()];
+			rankAndCrowd(scores, rank, crowding);
+			
+			final List<double[]> offspring = new ArrayList<double[]>();
+			while (offspring.size() < PARETO_POPULATION) { //breed the next generation
+				final double[] mother = population.get(tournament(rank, crowding, rng));
+				final double[] father = population.get(tournament(rank, crowding, rng));
+				final double[][] children = crossover(mother, father, bounds, rng);
+				for (double[] child: children) {
+					mutate(child, bounds, rng);
+					offspring.add(memo.quantise(child));
+				}
+			}
+			final double[][] offspringScores = memo.getAll(offspring);
+			numRequested += offspring.size();
+			
+			final List<double[]> combined = new ArrayList<double[]>(population);
+			combined.addAll(offspring);
+			final double[][] combinedScores = new double[combined.size()][];
+			System.arraycopy(scores, 0, combinedScores, 0, scores.length);
+			System.arraycopy(offspringScores, 0, combinedScores, scores.length, offspringScores.length);
+			
+			final int[] combinedRank = new int[combined.size()];
+			final double[] combinedCrowding = new double[combined.size()];
+			rankAndCrowd(combinedScores, combinedRank, combinedCrowding);
+			final Integer[] order = new Integer[combined.size()];
+			for (int i = 0; i < order.length; i ++)
+				order[i] = i;
+			Arrays.sort(order, (a, b) -> (combinedRank[a] != combinedRank[b]) ?
+					Integer.compare(combinedRank[a], combinedRank[b]) :
+					-Double.compare(combinedCrowding[a], combinedCrowding[b])); //keep the best fronts, and the loneliest of the last one
+			population = new ArrayList<double[]>();
+			scores = new double[PARETO_POPULATION][];
+			for (int i = 0; i < PARETO_POPULATION; i ++) {
+				population.add(combined.get(order[i]));
+				scores[i] = combinedScores[order[i]];
+			}
+			System.out.println("generation "+g+": "+memo.size()+" evaluations for "+numRequested+" requests");
+			checkpoint.put(memoKey, memo.toArray());
+		}
+		
+		final int[] rank = new int[population.size()];
+		rankAndCrowd(scores, rank, new double[population.size()]);
+		final List<Integer> front = new ArrayList<Integer>(); //pull out the nondominated ones
+		for (int i = 0; i < population.size(); i ++) {
+			boolean duplicate = false;
+			for (int j: front)
+				if (Arrays.equals(population.get(i), population.get(j)))
+					duplicate = true;
+			if (rank[i] == 0 && !duplicate)
+				front.add(i);
+		}
+		final double[][] finalScores = scores;
+		front.sort((a, b) -> Double.compare(finalScores[a][0], finalScores[b][0]));
+		
+		final Series<Number, Number> output = new Series<Number, Number>();
+		output.setName(proj.getName());
+		
+		log.println("We got the nondominated " + proj.getName() + " projections using:"); //now log it
+		for (int i: front) {
+			log.print("\t");
+			
+			for (int j = 0; j < proj.getNumParameters(); j++)
+				log.print("t" + j + "=" + population.get(i)[j] + "; "); //print the parameters used
+			
+			log.println("\t(" + scores[i][0] + ", " + scores[i][1] + ")"); //print the resulting distortion
+			
+			output.getData().add(new Data<Number, Number>(scores[i][0], scores[i][1])); //plot it
+		}
+		log.println();
+		return output;
+	}
+	
+	
 	/**
-	 * Returns the parameters that minimise the function, based on a simple brute-force
-	 * parameter sweep.
-	 * @param func - The function to minimise.
+	 * Sort some points into nondominated fronts, and measure how crowded each one is within its
+	 * front, for NSGA-II.
+	 * @param scores - The objective values of each point; lower is better.
+	 * @param rank - The array in which to put the index of the front each point is in; 0 is the
+	 * 		Pareto front.
+	 * @param crowding - The array in which to put the crowding distance of each point; bigger
+	 * 		is lonelier.
+	 */
+	private static void rankAndCrowd(double[][] scores, int[] rank, double[] crowding) {
+		final int n = scores.length;
+		final int[] numDominators = new int[n];
+		final List<List<Integer>> dominated = new ArrayList<List<Integer>>();
+		List<Integer> front = new ArrayList<Integer>();
+		for (int i = 0; i < n; i ++) {
+			dominated.add(new ArrayList<Integer>());
+			for (int j = 0; j < n; j ++) {
+				if (dominates(scores[i], scores[j]))
+					dominated.get(i).add(j);
+				else if (dominates(scores[j], scores[i]))
+					numDominators[i] ++;
+			}
+			if (numDominators[i] == 0)
+				front.add(i);
+		}
+		
+		for (int r = 0; !front.isEmpty(); r ++) { //peel off one front at a time
+			for (int k = 0; k < scores[0].length; k ++) { //crowding is the sum of the gaps around each point in each objective
+				final int dim = k;
+				final List<Integer> sorted = new ArrayList<Integer>(front);
+				sorted.sort((a, b) -> Double.compare(scores[a][dim], scores[b][dim]));
+				final double range = scores[sorted.get(sorted.size()-1)][dim] - scores[sorted.get(0)][dim];
+				crowding[sorted.get(0)] = Double.POSITIVE_INFINITY; //the ends of a front are always kept
+				crowding[sorted.get(sorted.size()-1)] = Double.POSITIVE_INFINITY;
+				for (int i = 1; i < sorted.size()-1; i ++)
+					if (range > 0)
+						crowding[sorted.get(i)] += (scores[sorted.get(i+1)][dim] - scores[sorted.get(i-1)][dim])/range;
+			}
+			
+			final List<Integer> next = new ArrayList<Integer>();
+			for (int i: front) {
+				rank[i] = r;
+				for (int j: dominated.get(i)) {
+					numDominators[j] --;
+					if (numDominators[j] == 0)
+						next.add(j);
+				}
+			}
+			next.sort(null);
+			front = next;
+		}
+	}
+	
+	
+	private static boolean dominates(double[] a, double[] b) { //is a at least as good as b at everything, and better at something?
+		boolean better = false;
+		for (int k = 0; k < a.length; k ++) {
+			if (a[k] > b[k])
+				return false;
+			else if (a[k] < b[k])
+				better = true;
+		}
+		return better;
+	}
+	
+	
+	private static int tournament(int[] rank, double[] crowding, Random rng) { //pick two at random and take the better one
+		final int a = rng.nextInt(rank.length), b = rng.nextInt(rank.length);
+		if (rank[a] != rank[b])
+			return (rank[a] < rank[b]) ? a : b;
+		else
+			return (crowding[a] >= crowding[b]) ? a : b;
+	}
+	
+	
+	private static double[][] crossover(double[] mother, double[] father, double[][] bounds, Random rng) { //simulated binary crossover
+		final double[][] children = { mother.clone(), father.clone() };
+		for (int i = 0; i < mother.length; i ++) {
+			final double u = rng.nextDouble();
+			final double beta = (u <= .5) ?
+					Math.pow(2*u, 1/(CROSSOVER_ETA+1)) :
+					Math.pow(1/(2*(1-u)), 1/(CROSSOVER_ETA+1));
+			children[0][i] = Math.max(bounds[i][0], Math.min(bounds[i][1],
+					((1+beta)*mother[i] + (1-beta)*father[i])/2));
+			children[1][i] = Math.max(bounds[i][0], Math.min(bounds[i][1],
+					((1-beta)*mother[i] + (1+beta)*father[i])/2));
+		}
+		return children;
+	}
+	
+	
+	private static void mutate(double[] params, double[][] bounds, Random rng) { //polynomial mutation, about one parameter at a time
+		for (int i = 0; i < params.length; i ++) {
+			if (rng.nextDouble() < 1./params.length) {
+				final double u = rng.nextDouble();
+				final double delta = (u < .5) ?
+						Math.pow(2*u, 1/(MUTATION_ETA+1)) - 1 :
+						1 - Math.pow(2*(1-u), 1/(MUTATION_ETA+1));
+				params[i] = Math.max(bounds[i][0], Math.min(bounds[i][1],
+						params[i] + delta*(bounds[i][1] - bounds[i][0])));
+			}
+		}
+	}
+	
+	
+	/**
+	 * Lay out a simple brute-force parameter sweep.
 	 * @param bounds - Parameter limits for each argument.
-	 * @return An array containing the best input to func that it found.
+	 * @return Every set of parameters in the sweep.
 	 */
-	private static double[] bruteForceMinimise(Function<double[], Double> func, double[][] bounds) {
-		System.out.println("BF = [");
+	private static double[][] bruteForceGrid(double[][] bounds) {
+		final List<double[]> grid = new ArrayList<double[]>();
 		final double[] params = new double[bounds.length];
 		for (int i = 0; i < params.length; i++)
 			params[i] = bounds[i][0]; // initialize params
-		double bestValue = Double.POSITIVE_INFINITY;
-		double[] bestParams = new double[params.length];
 		
 		while (true) { // run until you've exhausted the parameter space
-			double avgDist = func.apply(params);
-			if (avgDist < bestValue) {
-				bestValue = avgDist;
-				bestParams = params.clone();
-			}
-			for (int i = 0; i < params.length; i ++)
-				System.out.print(params[i]+", ");
-			System.out.println(avgDist+";");
+			grid.add(params.clone());
 			
 			int i;
 			for (i = 0; i <= params.length; i++) { // iterate the parameters
-				if (i == params.length) {
-					System.out.println("];");
-					return bestParams; // if you made it through all the parameters without breaking, you're done!
-				}
+				if (i == params.length)
+					return grid.toArray(new double[0][]); // if you made it through all the parameters without breaking, you're done!
 				
 				final double step = (bounds[i][1] - bounds[i][0]) /
 						Math.floor(Math.pow(NUM_BRUTE_FORCE, 1./params.length));
@@ -211,75 +497,244 @@ public class MapOptimizer extends Application {
 	}
 	
 	
+	/**
+	 * Returns the parameters from a brute-force sweep that minimise the weighted distortion.
+	 * @param grid - Every set of parameters in the sweep.
+	 * @param distortions - The size and shape distortion for each set of parameters.
+	 * @param weight - The weight to put on size, as opposed to shape.
+	 * @return The best set of parameters in grid.
+	 */
+	private static double[] bruteForceMinimise(double[][] grid, double[][] distortions, double weight) {
+		double bestValue = Double.POSITIVE_INFINITY;
+		double[] bestParams = new double[grid[0].length];
+		for (int i = 0; i < grid.length; i ++) {
+			final double avgDist = weighDistortion(distortions[i], weight);
+			if (avgDist < bestValue) {
+				bestValue = avgDist;
+				bestParams = grid[i].clone();
+			}
+		}
+		return bestParams;
+	}
+	
+	
 	/**
 	 * Calculates the set of parameters that minimises the function using BFGS optimisation with
-	 * a backtracking line search.
-	 * @param arrFunction - The function that takes a parameter array and returns a double value.
+	 * a backtracking line search. The derivatives and line search candidates are evaluated in
+	 * parallel, but the result is the same as if they weren't. The function may be given at
+	 * several fidelities; it starts on the cheapest and moves to the next one whenever its steps
+	 * get smaller than the difference between the two, since past that point it's just chasing
+	 * sampling noise. On the last fidelity, it stops once the gradient, the step, or the
+	 * improvement gets small enough.
+	 * @param funcs - Versions of the function that takes a parameter array and returns a double
+	 * 		value, from the roughest to the most accurate.
 	 * @param x0 - The initial guess.
-	 * @return The array of parameters that mimimise arrFunction.
+	 * @param out - The stream to which to print the progress.
+	 * @param trace - The stream to which to write a JSON line about each iteration and the run.
+	 * @param name - The name of the projection, for the trace.
+	 * @param weight - The weight on size distortion, for the trace.
+	 * @param checkpoint - The Checkpoint in which to save the iterate and inverse Hessian as it
+	 * 		goes, and from which to resume if they're already there.
+	 * @param key - The name under which to save it.
+	 * @return The array of parameters that mimimise the last of funcs.
 	 */
-	private static double[] bfgsMinimise(Function<double[], Double> arrFunction, double[] x0) { //The Broyden-Fletcher-Goldfarb-Shanno algorithm
-		System.out.println("BFGS = [");
+	private static double[] bfgsMinimise(ParallelObjective<?>[] funcs, double[] x0, PrintStream out,
+			PrintStream trace, String name, double weight, Checkpoint checkpoint, String key) { //The Broyden-Fletcher-Goldfarb-Shanno algorithm
+		final long startTime = System.nanoTime();
+		out.println("BFGS = [");
 		final int n = x0.length;
 		final Matrix I = Matrix.identity(n);
-		final Function<Vector, Double> func = (vec) -> arrFunction.apply(vec.asArray());
 		
-		Vector xk = new Vector(x0); //initial variable values
-		double fxk = func.apply(xk);
-		Matrix Binv = hessian(func, xk, fxk).inverse();
-		Vector gradFxk = grad(func, xk, fxk); //function at current location
+		final double[] saved = checkpoint.get(key); //{fidelity, iterations, backtracks, iterations at this fidelity, xk..., Binv...}
+		final int l0, k0;
+		Vector xk;
+		double fxk;
+		Matrix Binv;
+		int numIterations, numBacktracks;
+		if (saved == null || saved.length != 4 + n + n*n || !(saved[0] >= 0 && saved[0] < funcs.length)) { //if there's nothing (usable) saved, start fresh
+			l0 = 0;
+			k0 = 0;
+			xk = new Vector(x0); //initial variable values
+			fxk = funcs[l0].apply(xk.asArray());
+			Binv = hessian(funcs[l0], xk, fxk).inverse(); //the curvature doesn't change much between fidelities, so this can be kept
+			numIterations = 0;
+			numBacktracks = 0;
+		}
+		else {
+			l0 = (int)saved[0];
+			k0 = (int)saved[3]; //so that a resumed run gets the same iteration budget as an uninterrupted one
+			out.println("% resuming at fidelity "+l0+", iteration "+k0);
+			xk = new Vector(Arrays.copyOfRange(saved, 4, 4 + n));
+			fxk = funcs[l0].apply(xk.asArray());
+			Binv = new Matrix(n, n);
+			for (int i = 0; i < n; i ++)
+				for (int j = 0; j < n; j ++)
+					Binv.setElement(i, j, saved[4 + n + i*n + j]);
+			numIterations = (int)saved[1];
+			numBacktracks = (int)saved[2];
+		}
+		Vector gradFxk = null;
+		String reason = "iteration limit";
 		
-		for (int k = 0; k < NUM_BFGS_ITERATE; k ++) { //(I'm not sure how to test for convergence here, so I'm just running a set number of iterations)
-			Vector pk = Vector.fromMatrix(Binv.times(gradFxk)); //apply Newton's method for initial step direction
-			pk = pk.times(-Math.signum(pk.dot(gradFxk))); //but make sure it points downhill
-			
-			double alfk = BACKTRACK_ALF0; //perform a backtracking line search to find the best alpha
-			double fxkp1 = func.apply(xk.plus(pk.times(alfk)));
-			while ((!Double.isFinite(fxkp1) || fxkp1 > fxk + alfk*pk.dot(gradFxk)*GOLDSTEIN_C)) {
-				if (alfk <= 1e-5)
-					return xk.asArray(); //a simple way to check for convergence: if xk gets ridiculously small, we're done here.
-				alfk *= BACKTRACK_TAU;
-				fxkp1 = func.apply(xk.plus(pk.times(alfk)));
+		fidelity:
+		for (int l = l0; l < funcs.length; l ++) {
+			final ParallelObjective<?> func = funcs[l];
+			final boolean finest = (l == funcs.length-1);
+			if (l > l0) {
+				out.println("% moving to fidelity "+l);
+				fxk = func.apply(xk.asArray());
 			}
+			final double noise = finest ? 0 :
+					Math.abs(fxk - funcs[l+1].apply(xk.asArray())); //how far off this fidelity is, roughly
+			gradFxk = grad(func, xk, fxk, out); //function at current location
 			
-			Vector sk = pk.times(alfk); //iterate
-			Vector xkp1 = xk.plus(sk);
-			
-			Vector gradFxkp1 = grad(func, xkp1, fxkp1); //compute new gradient
-			Vector yk = gradFxkp1.minus(gradFxk); //and gradient change
-			
-			Matrix a = I.minus(sk.times(yk.T()).times(1/yk.dot(sk)));
-			Matrix b = sk.times(sk.T()).times(1/yk.dot(sk));
-			Binv = a.times(Binv).times(a.T()).plus(b); //update Binv
-			
-			xk = xkp1;
-			fxk = fxkp1;
-			gradFxk = gradFxkp1; //and save the gradient
+			final int maxIterate = (finest && l > 0) ? MAX_FINE_BFGS_ITERATE : MAX_BFGS_ITERATE;
+			for (int k = (l == l0) ? k0 : 0; k < maxIterate; k ++) {
+				final double[] state = new double[4 + n + n*n]; //save everything we need to get back here
+				state[0] = l;
+				state[1] = numIterations;
+				state[2] = numBacktracks;
+				state[3] = k;
+				System.arraycopy(xk.asArray(), 0, state, 4, n);
+				for (int i = 0; i < n; i ++)
+					for (int j = 0; j < n; j ++)
+						state[4 + n + i*n + j] = Binv.getElement(i, j);
+				checkpoint.put(key, state);
+				
+				if (finest && gradFxk.norm() < GRADIENT_TOLERANCE) {
+					reason = "gradient";
+					break fidelity;
+				}
+				
+				Vector pk = Vector.fromMatrix(Binv.times(gradFxk)); //apply Newton's method for initial step direction
+				pk = pk.times(-Math.signum(pk.dot(gradFxk))); //but make sure it points downhill
+				
+				double alfk = BACKTRACK_ALF0; //perform a backtracking line search to find the best alpha
+				double fxkp1;
+				search:
+				while (true) {
+					final double[][] candidates = new double[LINE_SEARCH_BATCH][]; //try several alphas at once
+					double alf = alfk;
+					for (int m = 0; m < candidates.length; m ++) {
+						candidates[m] = xk.plus(pk.times(alf)).asArray();
+						alf *= BACKTRACK_TAU;
+					}
+					final double[] values = func.applyAll(candidates);
+					for (int m = 0; m < candidates.length; m ++) { //and take the first that works, as if we had tried them in order
+						fxkp1 = values[m];
+						if (Double.isFinite(fxkp1) && fxkp1 <= fxk + alfk*pk.dot(gradFxk)*GOLDSTEIN_C)
+							break search;
+						if (alfk <= 1e-5) {
+							if (finest) {
+								reason = "line search";
+								break fidelity; //if the step gets ridiculously small, we're done here
+							}
+							else {
+								continue fidelity; //or at least done with this fidelity
+							}
+						}
+						alfk *= BACKTRACK_TAU;
+						numBacktracks ++;
+					}
+				}
+				
+				Vector sk = pk.times(alfk); //iterate
+				Vector xkp1 = xk.plus(sk);
+				numIterations ++;
+				
+				final boolean smallStep = sk.norm() < (finest ? STEP_TOLERANCE : DEL_X);
+				final boolean smallImprovement = fxk - fxkp1 <
+						(finest ? IMPROVEMENT_TOLERANCE*Math.abs(fxk) : noise);
+				if (!finest && (smallStep || smallImprovement)) { //if the improvement is down in the noise
+					xk = xkp1;
+					fxk = fxkp1;
+					continue fidelity; //it's time to look more closely
+				}
+				
+				Vector gradFxkp1 = grad(func, xkp1, fxkp1, out); //compute new gradient
+				Vector yk = gradFxkp1.minus(gradFxk); //and gradient change
+				
+				Matrix a = I.minus(sk.times(yk.T()).times(1/yk.dot(sk)));
+				Matrix b = sk.times(sk.T()).times(1/yk.dot(sk));
+				Binv = a.times(Binv).times(a.T()).plus(b); //update Binv
+				
+				trace.println(jsonLine("event", "iteration", "projection", name, "weight", weight,
+						"fidelity", l, "iteration", numIterations, "value", fxkp1,
+						"step", sk.norm(), "gradient_norm", gradFxkp1.norm(),
+						"backtracks", numBacktracks));
+				
+				xk = xkp1;
+				fxk = fxkp1;
+				gradFxk = gradFxkp1; //and save the gradient
+				
+				if (finest && smallStep) {
+					reason = "step";
+					break fidelity;
+				}
+				if (finest && smallImprovement) {
+					reason = "improvement";
+					break fidelity;
+				}
+			}
 		}
-		System.out.println("];");
+		out.println("];");
+		
+		long numEvaluations = 0;
+		double evaluationTime = 0;
+		for (ParallelObjective<?> func: funcs) {
+			numEvaluations += func.getNumEvaluations();
+			evaluationTime += func.getEvaluationTime();
+		}
+		trace.println(jsonLine("event", "run", "projection", name, "weight", weight,
+				"stopped_by", reason, "iterations", numIterations, "backtracks", numBacktracks,
+				"evaluations", numEvaluations, "seconds", (System.nanoTime() - startTime)/1e9,
+				"seconds_per_evaluation", evaluationTime/numEvaluations, "value", fxk,
+				"gradient_norm", gradFxk.norm(), "parameters", xk.asArray()));
 		return xk.asArray();
 	}
 	
 	
+	private static String jsonLine(Object... keysAndValues) { //format some keys and values as a single-line JSON object
+		final StringBuilder line = new StringBuilder("{");
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			if (i > 0)
+				line.append(", ");
+			line.append("\"").append(keysAndValues[i]).append("\": ");
+			final Object value = keysAndValues[i+1];
+			if (value instanceof String)
+				line.append("\"").append(((String) value).replace("\\", "\\\\").replace("\"", "\\\"")).append("\"");
+			else if (value instanceof double[])
+				line.append(Arrays.toString((double[]) value).replace("NaN", "null"));
+			else if (value instanceof Double && !Double.isFinite((Double) value))
+				line.append("null");
+			else
+				line.append(value);
+		}
+		return line.append("}").toString();
+	}
+	
+	
 	/**
 	 * Calculates the gradient vector of f at x.
 	 * @param f - The function to differentiate.
 	 * @param x - The point at which to differentiate.
 	 * @param fx - The value of f(x), to speed computations.
+	 * @param out - The stream to which to print x and f(x).
 	 * @return The vector of partial derivatives of f at x.
 	 */
-	private static Vector grad(Function<Vector, Double> f, Vector x, double fx) {
+	private static Vector grad(ParallelObjective<?> f, Vector x, double fx, PrintStream out) {
 		final int n = x.getLength();
 		Vector gradF = new Vector(n); //compute the gradient
 		
-		for (int i = 0; i < n; i ++) {
-			Vector xph = x.plus(Vector.unit(i,n).times(DEL_X));
-			double fxph = f.apply(xph);
-			gradF.setElement(i, (fxph-fx)/DEL_X);
-		}
+		final double[][] probes = new double[n][];
+		for (int i = 0; i < n; i ++)
+			probes[i] = x.plus(Vector.unit(i,n).times(DEL_X)).asArray();
+		final double[] fxph = f.applyAll(probes); //evaluate all the steps at once
+		for (int i = 0; i < n; i ++)
+			gradF.setElement(i, (fxph[i]-fx)/DEL_X);
 		for (double d: x.asArray())
-			System.out.print(d+", ");
-		System.out.println(fx+";");
+			out.print(d+", ");
+		out.println(fx+";");
 		return gradF;
 	}
 	
@@ -291,22 +746,28 @@ public class MapOptimizer extends Application {
 	 * @param fx - The value of f(x), to aid in computation.
 	 * @return The Jacobian of the gradient, a symmetric Matrix of second derivatives.
 	 */
-	private static Matrix hessian(Function<Vector, Double> f, Vector x, double fx) {
+	private static Matrix hessian(ParallelObjective<?> f, Vector x, double fx) {
 		final int n = x.getLength();
 		
-		double[] values = new double[(int)Math.pow(3, n-1)*2+1]; //points in array placed with ternary coordinates
-		values[0] = fx;
+		final List<Integer> indices = new ArrayList<Integer>(); //list all the probes first
+		final List<double[]> probes = new ArrayList<double[]>();
 		for (int i = 0; i < n; i ++) { //for each primary dimension
 			for (int j = i; j < n; j ++) { //for each secondary dimension (skip a few to prevent redundant calculations)
-				int k = (int)Math.pow(3, i) + (int)Math.pow(3, j); //calculate the ternary index
+				indices.add((int)Math.pow(3, i) + (int)Math.pow(3, j)); //calculate the ternary index
 				Vector dx = Vector.unit(i, n).plus(Vector.unit(j, n)).times(DEL_X); //go a bit in both directions
-				values[k] = f.apply(x.plus(dx)); //calculate and save
+				probes.add(x.plus(dx).asArray());
 			}
-			int k = (int)Math.pow(3, i); //do the same with just i, no j
+			indices.add((int)Math.pow(3, i)); //do the same with just i, no j
 			Vector dx = Vector.unit(i, n).times(DEL_X);
-			values[k] = f.apply(x.plus(dx));
+			probes.add(x.plus(dx).asArray());
 		}
 		
+		final double[] probeValues = f.applyAll(probes.toArray(new double[0][])); //then do them all at once
+		double[] values = new double[(int)Math.pow(3, n-1)*2+1]; //points in array placed with ternary coordinates
+		values[0] = fx;
+		for (int p = 0; p < probeValues.length; p ++)
+			values[indices.get(p)] = probeValues[p]; //and save them
+		
 		Matrix h = new Matrix(n, n);
 		for (int i = 0; i < n; i ++) { //compute the derivatives and fill the matrix
 			for (int j = i; j < n; j ++) {
@@ -323,4 +784,89 @@ public class MapOptimizer extends Application {
 		return h;
 	}
 	
+	
+	
+	/**
+	 * Remembers the size and shape distortion of every set of parameters it has seen, so that
+	 * nothing gets evaluated twice. Parameters are rounded to a fine grid first, so that points
+	 * that are basically the same count as the same, and so the answer doesn't depend on which
+	 * of them came first.
+	 * 
+	 * @author jkunimune
+	 */
+	private static class DistortionMemo {
+		
+		private final Map<List<Long>, double[]> values; //the distortion at each quantised parameter set
+		private final ThreadLocal<Projection> copies; //every thread gets its own copy of the projection
+		private final double[][] bounds;
+		private final double[][][] points;
+		
+		private DistortionMemo(Projection proj, double[][] bounds, double[][][] points) {
+			this.values = new ConcurrentHashMap<List<Long>, double[]>();
+			this.copies = ThreadLocal.withInitial(proj::copy);
+			this.bounds = bounds;
+			this.points = points;
+		}
+		
+		private double[] quantise(double[] params) { //round to the nearest representable parameters
+			final List<Long> key = keyOf(params);
+			final double[] output = new double[params.length];
+			for (int i = 0; i < params.length; i ++)
+				output[i] = bounds[i][0] + key.get(i)*(bounds[i][1] - bounds[i][0])/PARETO_RESOLUTION;
+			return output;
+		}
+		
+		private List<Long> keyOf(double[] params) {
+			final Long[] key = new Long[params.length];
+			for (int i = 0; i < params.length; i ++)
+				key[i] = Math.round((params[i] - bounds[i][0])/(bounds[i][1] - bounds[i][0])*PARETO_RESOLUTION);
+			return Arrays.asList(key);
+		}
+		
+		private double[] get(double[] params) { //look up or compute {size, shape}, where NaN counts as infinitely bad
+			final List<Long> key = keyOf(params);
+			double[] value = values.get(key);
+			if (value == null) {
+				value = measureDistortion(copies.get(), quantise(params), points);
+				for (int k = 0; k < value.length; k ++)
+					if (Double.isNaN(value[k]))
+						value[k] = Double.POSITIVE_INFINITY;
+				values.putIfAbsent(key, value);
+			}
+			return value;
+		}
+		
+		private double[][] getAll(List<double[]> params) {
+			return params.parallelStream().map(this::get).toArray(double[][]::new);
+		}
+		
+		private int size() {
+			return values.size();
+		}
+		
+		private double[] toArray() { //flatten it for a Checkpoint: the key and then the value of each entry
+			final int n = bounds.length;
+			final List<Map.Entry<List<Long>, double[]>> entries =
+					new ArrayList<Map.Entry<List<Long>, double[]>>(values.entrySet());
+			final double[] output = new double[entries.size()*(n + 2)];
+			for (int e = 0; e < entries.size(); e ++) {
+				for (int i = 0; i < n; i ++)
+					output[e*(n + 2) + i] = entries.get(e).getKey().get(i);
+				output[e*(n + 2) + n] = entries.get(e).getValue()[0];
+				output[e*(n + 2) + n + 1] = entries.get(e).getValue()[1];
+			}
+			return output;
+		}
+		
+		private void load(double[] flattened) { //the inverse of toArray
+			final int n = bounds.length;
+			for (int e = 0; e + n + 2 <= flattened.length; e += n + 2) {
+				final Long[] key = new Long[n];
+				for (int i = 0; i < n; i ++)
+					key[i] = (long)flattened[e + i];
+				values.put(Arrays.asList(key),
+						new double[] { flattened[e + n], flattened[e + n + 1] });
+			}
+		}
+	}
 }
@@ -50,6 +50,7 @@ import javafx.stage.Stage;
 import maps.Arbitrary;
 import maps.Azimuthal;
 import maps.Cylindrical;
+import maps.DistortionStatistics;
 import maps.Lenticular;
 import maps.Misc;
 import maps.Octohedral;
@@ -147,16 +148,17 @@ public class MapPlotter extends Application {
 		
 		for (Projection projection: projections) {
 			System.out.print(projection+": ");
-			final double[] params = projection.getDefaultParameters();
-			final double distortion[] = projection.avgDistortion(points, params);
+			projection.setParameters(projection.getDefaultParameters());
+			final DistortionStatistics stats = DistortionStatistics.of(projection, points);
 			final Data<Number, Number> datum = new Data<Number, Number>(
-					distortion[0]/DECIBEL, distortion[1]/DECIBEL);
+					stats.getSizeStdDev()/DECIBEL, stats.getShapeMean()/DECIBEL);
 			series.getData().add(datum);
 			final Label lbl = new Label(projection.getName());
 			overlay.getChildren().add(lbl);
 			labels.add(lbl);
 			data.add(datum);
-			System.out.println(distortion[0]+", "+distortion[1]);
+			System.out.println(stats.getSizeStdDev()+", "+stats.getShapeMean()+
+					" (95th percentile shape: "+stats.getShapePercentile(95)+")");
 		}
 		
 		chart.getData().add(series);
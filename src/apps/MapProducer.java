@@ -83,8 +83,8 @@ public class MapProducer extends Application {
 	public void start(Stage stage) throws Exception {
 		new File("images").mkdirs();
 		
-		SVGMap[] inputs = { new SVGMap(new File("input/Advanced/Tissot Wikipedia +0.svg")),
-				new SVGMap(new File("input/Advanced/Tissot Wikipedia -20.svg")) };
+		SVGMap[] inputs = { SVGMap.load(new File("input/Advanced/Tissot Wikipedia +0.svg")),
+				SVGMap.load(new File("input/Advanced/Tissot Wikipedia -20.svg")) };
 		double[] ctrMerids = {0, Math.toRadians(-20)};
 		for (int i = 0; i < 2; i ++) {
 			double[] pole = {Math.PI/2, 0, ctrMerids[i]};
@@ -99,7 +99,7 @@ public class MapProducer extends Application {
 					proj.setParameters(proj.getDefaultParameters());
 				
 				Task<SavableImage> task =
-						MapDesignerVector.calculateTask(1, inputs[i], proj, pole, null);
+						MapDesignerVector.calculateTask(0, inputs[i], proj, pole, null);
 				task.setOnSucceeded((event) -> {
 					try {
 						task.getValue().save(new File("images/"+proj+".svg"));
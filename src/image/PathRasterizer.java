@@ -0,0 +1,230 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package image;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import image.SVGMap.Command;
+import image.SVGMap.Path;
+
+/**
+ * A software rasteriser for stroking Paths into an ARGB buffer, with antialiasing. It does all of
+ * its work on whatever thread calls it, splitting the image into tiles and drawing them in
+ * parallel, so it can keep the application thread free.
+ * 
+ * @author jkunimune
+ */
+public class PathRasterizer {
+	
+	private static final int TILE_SIZE = 64; //the width and height of each tile in pixels
+	private static final int CURVE_STEPS = 8; //the number of line segments with which to approximate each curve
+	
+	private final int width, height;
+	private double[] segments; //{x0, y0, x1, y1} of every line segment, in pixels
+	private int numSegments;
+	
+	
+	
+	public PathRasterizer(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.segments = new double[4096];
+		this.numSegments = 0;
+	}
+	
+	
+	
+	/**
+	 * Add a Path to be drawn, flattening any curves into line segments.
+	 * @param path - The path in map coordinates.
+	 * @param minX - The map x coordinate that goes on the left edge of the image.
+	 * @param maxY - The map y coordinate that goes on the top edge of the image.
+	 * @param scaleX - The number of pixels per map unit horizontally.
+	 * @param scaleY - The number of pixels per map unit vertically.
+	 */
+	public void addPath(Path path, double minX, double maxY, double scaleX, double scaleY) {
+		double startX = 0, startY = 0, lastX = 0, lastY = 0;
+		for (Command cmd: path) {
+			final double[] args = new double[cmd.args.length];
+			for (int i = 0; i < args.length; i += 2) {
+				args[i+0] = (cmd.args[i+0] - minX)*scaleX;
+				args[i+1] = (maxY - cmd.args[i+1])*scaleY;
+			}
+			
+			switch (cmd.type) {
+			case 'M':
+				startX = args[0];
+				startY = args[1];
+				lastX = args[0];
+				lastY = args[1];
+				for (int i = 2; i < args.length; i += 2) { //extra pairs are implicit linetos
+					addSegment(lastX, lastY, args[i+0], args[i+1]);
+					lastX = args[i+0];
+					lastY = args[i+1];
+				}
+				break;
+			case 'L':
+			case 'T':
+				for (int i = 0; i < args.length; i += 2) {
+					addSegment(lastX, lastY, args[i+0], args[i+1]);
+					lastX = args[i+0];
+					lastY = args[i+1];
+				}
+				break;
+			case 'Q':
+			case 'S':
+				for (int i = 0; i+3 < args.length; i += 4) {
+					for (int k = 1; k <= CURVE_STEPS; k ++) { //quadratic Bezier
+						final double t = (double)k/CURVE_STEPS, s = 1 - t;
+						final double x = s*s*lastX + 2*s*t*args[i+0] + t*t*args[i+2];
+						final double y = s*s*lastY + 2*s*t*args[i+1] + t*t*args[i+3];
+						addSegment(lastX, lastY, x, y);
+						lastX = x;
+						lastY = y;
+					}
+				}
+				break;
+			case 'C':
+				for (int i = 0; i+5 < args.length; i += 6) {
+					final double x0 = lastX, y0 = lastY;
+					for (int k = 1; k <= CURVE_STEPS; k ++) { //cubic Bezier
+						final double t = (double)k/CURVE_STEPS, s = 1 - t;
+						final double x = s*s*s*x0 + 3*s*s*t*args[i+0] + 3*s*t*t*args[i+2] + t*t*t*args[i+4];
+						final double y = s*s*s*y0 + 3*s*s*t*args[i+1] + 3*s*t*t*args[i+3] + t*t*t*args[i+5];
+						addSegment(lastX, lastY, x, y);
+						lastX = x;
+						lastY = y;
+					}
+				}
+				break;
+			case 'Z':
+				addSegment(lastX, lastY, startX, startY);
+				lastX = startX;
+				lastY = startY;
+				break;
+			default:
+				System.err.println("Unsupported movement type: "+cmd.type); //I don't do arcs; they just don't work well with projection
+			}
+		}
+	}
+	
+	
+	/**
+	 * Stroke every segment that has been added, and return the result.
+	 * @param lineWidth - The width of the stroke, in pixels.
+	 * @param argb - The colour of the stroke, in non-premultiplied ARGB.
+	 * @return The pixels of the image in non-premultiplied ARGB, row by row, with transparency
+	 * 		everywhere there is no stroke.
+	 */
+	public int[] stroke(double lineWidth, int argb) {
+		final double reach = lineWidth/2 + 0.5; //the farthest a pixel centre can be and still get some ink
+		final int tilesX = (width + TILE_SIZE - 1)/TILE_SIZE, tilesY = (height + TILE_SIZE - 1)/TILE_SIZE;
+		
+		final int[] binStarts = new int[tilesX*tilesY + 1]; //sort the segments into the tiles they touch
+		final int[] tileRange = new int[4];
+		for (int s = 0; s < numSegments; s ++) { //count how many go in each tile
+			tileRange(s, reach, tilesX, tilesY, tileRange);
+			for (int j = tileRange[2]; j <= tileRange[3]; j ++)
+				for (int i = tileRange[0]; i <= tileRange[1]; i ++)
+					binStarts[j*tilesX + i + 1] ++;
+		}
+		for (int t = 1; t < binStarts.length; t ++) //turn the counts into offsets
+			binStarts[t] += binStarts[t-1];
+		final int[] bins = new int[binStarts[binStarts.length-1]];
+		final int[] binEnds = Arrays.copyOf(binStarts, binStarts.length-1);
+		for (int s = 0; s < numSegments; s ++) { //then put them in
+			tileRange(s, reach, tilesX, tilesY, tileRange);
+			for (int j = tileRange[2]; j <= tileRange[3]; j ++)
+				for (int i = tileRange[0]; i <= tileRange[1]; i ++)
+					bins[binEnds[j*tilesX + i] ++] = s;
+		}
+		
+		final int[] pixels = new int[width*height];
+		final int rgb = argb & 0x00FFFFFF, alpha = argb >>> 24;
+		IntStream.range(0, tilesX*tilesY).parallel().forEach((t) -> { //then draw each tile independently
+			final int x0 = (t%tilesX)*TILE_SIZE, y0 = (t/tilesX)*TILE_SIZE;
+			final int x1 = Math.min(x0 + TILE_SIZE, width), y1 = Math.min(y0 + TILE_SIZE, height);
+			final float[] coverage = new float[TILE_SIZE*TILE_SIZE];
+			for (int b = binStarts[t]; b < binStarts[t+1]; b ++)
+				drawSegment(bins[b], reach, x0, y0, x1, y1, coverage);
+			for (int y = y0; y < y1; y ++) {
+				for (int x = x0; x < x1; x ++) {
+					final float c = coverage[(y-y0)*TILE_SIZE + (x-x0)];
+					if (c > 0)
+						pixels[y*width + x] = (Math.round(c*alpha) << 24) | rgb;
+				}
+			}
+		});
+		return pixels;
+	}
+	
+	
+	private void tileRange(int s, double reach, int tilesX, int tilesY, int[] range) { //find the {i0, i1, j0, j1} of the tiles this segment might touch
+		range[0] = Math.max(0, (int)Math.floor((Math.min(segments[4*s+0], segments[4*s+2]) - reach)/TILE_SIZE));
+		range[1] = Math.min(tilesX-1, (int)Math.floor((Math.max(segments[4*s+0], segments[4*s+2]) + reach)/TILE_SIZE));
+		range[2] = Math.max(0, (int)Math.floor((Math.min(segments[4*s+1], segments[4*s+3]) - reach)/TILE_SIZE));
+		range[3] = Math.min(tilesY-1, (int)Math.floor((Math.max(segments[4*s+1], segments[4*s+3]) + reach)/TILE_SIZE));
+	}
+	
+	
+	private void drawSegment(int s, double reach, int x0, int y0, int x1, int y1, float[] coverage) { //ink in every pixel of the tile near enough to this segment
+		final double ax = segments[4*s+0], ay = segments[4*s+1];
+		final double bx = segments[4*s+2], by = segments[4*s+3];
+		final int i0 = Math.max(x0, (int)Math.floor(Math.min(ax, bx) - reach));
+		final int i1 = Math.min(x1-1, (int)Math.ceil(Math.max(ax, bx) + reach));
+		final int j0 = Math.max(y0, (int)Math.floor(Math.min(ay, by) - reach));
+		final int j1 = Math.min(y1-1, (int)Math.ceil(Math.max(ay, by) + reach));
+		final double dx = bx - ax, dy = by - ay;
+		final double lengthSqr = dx*dx + dy*dy;
+		for (int j = j0; j <= j1; j ++) {
+			for (int i = i0; i <= i1; i ++) {
+				final double px = i + 0.5 - ax, py = j + 0.5 - ay; //measure from the pixel centre
+				double t = (lengthSqr > 0) ? (px*dx + py*dy)/lengthSqr : 0;
+				t = Math.max(0, Math.min(1, t));
+				final double distance = Math.hypot(px - t*dx, py - t*dy);
+				final float c = (float)Math.min(1, reach - distance); //the coverage falls off linearly over one pixel
+				final int k = (j-y0)*TILE_SIZE + (i-x0);
+				if (c > coverage[k])
+					coverage[k] = c; //take the max, so joints don't get darker
+			}
+		}
+	}
+	
+	
+	private void addSegment(double x0, double y0, double x1, double y1) {
+		if (!Double.isFinite(x0) || !Double.isFinite(y0) || !Double.isFinite(x1) || !Double.isFinite(y1))
+			return;
+		if (Math.max(x0, x1) < -1 || Math.min(x0, x1) > width+1
+				|| Math.max(y0, y1) < -1 || Math.min(y0, y1) > height+1)
+			return; //don't bother with things entirely off the image
+		if (4*numSegments + 4 > segments.length)
+			segments = Arrays.copyOf(segments, 2*segments.length);
+		segments[4*numSegments+0] = x0;
+		segments[4*numSegments+1] = y0;
+		segments[4*numSegments+2] = x1;
+		segments[4*numSegments+3] = y1;
+		numSegments ++;
+	}
+}
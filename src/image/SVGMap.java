@@ -24,19 +24,30 @@
 package image;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPInputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -49,6 +60,7 @@ import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 
 import utils.Math2;
+import utils.RTree;
 
 /**
  * An input equirectangular map based on an SVG file
@@ -64,6 +76,14 @@ public class SVGMap implements Iterable<SVGMap.Path> {
 	private double vbMinX, vbMinY, vbWidth, vbHeight; //the SVG viewBox
 	private double svgWidth, svgHeight; //the actual SVG dimensions
 	private int length; //the total number of path commands, for optimization purposes
+	private Topology topology; //the shared arcs that make up the paths, with their level-of-detail rankings
+	private RTree index; //the longitude-latitude bounding boxes of the paths, for culling
+	
+	private static final int SNAPSHOT_MAGIC = 0x4D415053; //"MAPS"
+	private static final int SNAPSHOT_VERSION = 2; //increment this whenever the snapshot layout changes
+	private static final int SNAPSHOT_HEADER_SIZE = 24; //the magic number, version, source length, and source modification time
+	private static final String SNAPSHOT_EXTENSION = ".snap";
+	private static final File SNAPSHOT_DIR = new File("cache"); //where snapshots go when they aren't next to the SVG
 	
 	private static final Map<String, String> ATTRIBUTE_PLACEHOLDERS = Map.of(
 			"width","hmxMLwhWHeqMA8Ba", "height","VlMBunXsmQUtmCw4", "viewBox","UrFo1q9niPDkKSNC"); //attributes of the SVG object to change
@@ -220,12 +240,50 @@ public class SVGMap implements Iterable<SVGMap.Path> {
 			}
 		};
 		
-		parser.parse(new BufferedInputStream(new FileInputStream(file)), handler);
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		if (SVGWriter.isCompressed(file))
+			in = new GZIPInputStream(in);
+		parser.parse(in, handler);
+		
+		topology = new Topology(paths);
+		indexPaths();
+	}
+	
+	
+	/**
+	 * Load an SVGMap from a file, using a binary snapshot of it if there is a fresh one either next
+	 * to it or in the cache directory. If there isn't, parse the SVG and leave a snapshot in the
+	 * cache directory for next time.
+	 * @param file - The SVG file to load.
+	 * @return The SVGMap, one way or another.
+	 */
+	public static SVGMap load(File file) throws IOException, SAXException, ParserConfigurationException {
+		final File[] snapshots = snapshotFiles(file);
+		for (File snapshot: snapshots) {
+			if (snapshot.isFile()) {
+				try {
+					final SVGMap map = readSnapshot(snapshot, file);
+					if (map != null)
+						return map;
+				} catch (IOException | RuntimeException e) { //a bad snapshot is no reason to give up
+					System.err.println("Could not read snapshot "+snapshot+": "+e);
+				}
+			}
+		}
+		
+		final SVGMap map = new SVGMap(file);
+		try {
+			map.writeSnapshot(snapshots[snapshots.length-1], file);
+		} catch (IOException e) {
+			System.err.println("Could not write snapshot for "+file+": "+e);
+		}
+		return map;
 	}
 	
 	
 	private SVGMap(List<Path> paths, List<String> format, double vbMinX, double vbMinY,
-			double vbWidth, double vbHeight, double svgWidth, double svgHeight, int size) {
+			double vbWidth, double vbHeight, double svgWidth, double svgHeight, int size,
+			Topology topology, RTree index) {
 		this.paths = paths;
 		this.format = format;
 		this.vbMinX = vbMinX;
@@ -235,6 +293,8 @@ public class SVGMap implements Iterable<SVGMap.Path> {
 		this.svgWidth = svgWidth;
 		this.svgHeight = svgHeight;
 		this.length = size;
+		this.topology = topology;
+		this.index = index;
 	}
 	
 	
@@ -262,26 +322,288 @@ public class SVGMap implements Iterable<SVGMap.Path> {
 		List<String> newFormat = new LinkedList<String>();
 		for (String f: this.format)
 			newFormat.add(f.replace(target, replacement));
-		return new SVGMap(
-				paths, newFormat, vbMinX, vbMinY, vbWidth, vbHeight, svgWidth, svgHeight, length);
+		return new SVGMap(paths, newFormat, vbMinX, vbMinY, vbWidth, vbHeight, svgWidth, svgHeight,
+				length, topology, index);
 	}
 	
 	
-	public void save(List<Path> paths, File file, double inMinX, double inMaxY, double inWidth,
-			double inHeight) throws IOException {
-		BufferedWriter out = new BufferedWriter(new FileWriter(file));
+	/**
+	 * Find the smallest tolerance that will keep the total number of vertices at or under maxVtx.
+	 * Rings and open curve endpoints are never split up, so the budget may be undershot.
+	 * @param maxVtx - The desired maximum number of vertices.
+	 * @return The tolerance to pass to simplified() or project(), in square radians.
+	 */
+	public double toleranceForBudget(int maxVtx) {
+		return topology.toleranceForBudget(maxVtx);
+	}
+	
+	
+	/**
+	 * Extract the paths at a particular level of detail, using the importances that were computed
+	 * on load. Paths that disappear entirely are still present, but empty, so that the output
+	 * lines up with the format strings. This takes time proportional to the number of vertices
+	 * kept, give or take a logarithm.
+	 * @param tolerance - The minimum Visvalingam-Whyatt area of any vertex to keep, in square
+	 * 		radians. Anything less than or equal to zero will just return the original paths.
+	 * @return The simplified paths.
+	 */
+	public List<Path> simplified(double tolerance) {
+		return simplified(tolerance, null);
+	}
+	
+	
+	/**
+	 * Extract the paths at a particular level of detail, leaving out any that are entirely
+	 * outside of the given boxes.
+	 * @param tolerance - The minimum Visvalingam-Whyatt area of any vertex to keep, in square
+	 * 		radians.
+	 * @param visibleBoxes - The {minLon, minLat, maxLon, maxLat} boxes outside of which nothing
+	 * 		will be shown, or null to keep everything.
+	 * @return The simplified paths, with invisible ones replaced with empty paths.
+	 */
+	public List<Path> simplified(double tolerance, double[][] visibleBoxes) {
+		if (tolerance <= 0 && visibleBoxes == null)
+			return paths;
+		
+		List<Path> output = new ArrayList<Path>(paths.size());
+		for (Path path: project(tolerance, visibleBoxes, UnaryOperator.identity()))
+			output.add(path);
+		return output;
+	}
+	
+	
+	/**
+	 * Simplify, cull, and transform the paths, transforming each shared arc only once so that
+	 * neighbouring paths stay exactly coincident. The paths are put together as they are iterated
+	 * over, so progress can be tracked.
+	 * @param tolerance - The minimum Visvalingam-Whyatt area of any vertex to keep, in square
+	 * 		radians.
+	 * @param visibleBoxes - The {minLon, minLat, maxLon, maxLat} boxes outside of which nothing
+	 * 		will be shown, or null to keep everything.
+	 * @param projection - The transformation to apply to each arc, such as a map projection. It
+	 * 		should leave the first and last points of each arc where it found them, relatively
+	 * 		speaking, so that the arcs can be joined back together.
+	 * @return The transformed paths, with invisible ones replaced with empty paths.
+	 */
+	public Iterable<Path> project(double tolerance, double[][] visibleBoxes,
+			UnaryOperator<Path> projection) {
+		final boolean[] visible = new boolean[paths.size()];
+		if (visibleBoxes == null)
+			Arrays.fill(visible, true);
+		else
+			for (double[] box: visibleBoxes)
+				index.search(box[0], box[1], box[2], box[3], (i) -> visible[i] = true);
+		
+		final Path[] cache = new Path[topology.numArcs()]; //each arc gets projected at most once
+		return () -> new Iterator<Path>() {
+			private final Iterator<Path> pathIterator = paths.iterator();
+			private int p = 0;
+			
+			public boolean hasNext() {
+				return pathIterator.hasNext();
+			}
+			
+			public Path next() {
+				final Path path = pathIterator.next();
+				final int i = p++;
+				if (!visible[i])
+					return new Path(); //skip it, but leave a placeholder
+				else
+					return topology.assemble(i, path, tolerance, projection, cache);
+			}
+		};
+	}
+	
+	
+	private static File[] snapshotFiles(File file) { //the places a snapshot of this file might be, in order of preference
+		final String name = file.getName() + SNAPSHOT_EXTENSION;
+		final String cacheName = Integer.toHexString(file.getAbsolutePath().hashCode()) + "-" + name; //the hash keeps files with the same name apart
+		return new File[] {
+				new File(file.getAbsoluteFile().getParentFile(), name),
+				new File(SNAPSHOT_DIR, cacheName) };
+	}
+	
+	
+	/**
+	 * Save everything we parsed out of source into a binary file that can be read back without
+	 * any parsing, in one sequential pass.
+	 */
+	private void writeSnapshot(File snapshot, File source) throws IOException {
+		if (snapshot.getParentFile() != null)
+			snapshot.getParentFile().mkdirs();
+		final File temp = new File(snapshot.getPath() + ".tmp"); //write it somewhere else first so nobody reads half a snapshot
+		
+		int numArgs = 0;
+		for (Path path: paths)
+			for (Command cmd: path)
+				numArgs += cmd.args.length;
+		
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+			out.writeInt(SNAPSHOT_MAGIC); //the header
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+			
+			out.writeDouble(vbMinX); //the metadata
+			out.writeDouble(vbMinY);
+			out.writeDouble(vbWidth);
+			out.writeDouble(vbHeight);
+			out.writeDouble(svgWidth);
+			out.writeDouble(svgHeight);
+			out.writeInt(length);
+			out.writeInt(paths.size());
+			out.writeInt(format.size());
+			out.writeInt(numArgs);
+			
+			for (String f: format) { //the format strings
+				final byte[] bytes = f.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			
+			for (Path path: paths) //the geometry
+				out.writeInt(path.size());
+			for (Path path: paths)
+				for (Command cmd: path)
+					out.writeByte(cmd.type);
+			for (Path path: paths)
+				for (Command cmd: path)
+					out.writeInt(cmd.args.length);
+			for (Path path: paths)
+				for (Command cmd: path)
+					for (double arg: cmd.args)
+						out.writeDouble(arg);
+			
+			topology.write(out); //and the arcs, with their level-of-detail hierarchy
+		}
+		Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	
+	/**
+	 * Memory-map a snapshot and read it back in.
+	 * @return the SVGMap, or null if the snapshot is out of date.
+	 */
+	private static SVGMap readSnapshot(File snapshot, File source) throws IOException {
+		final ByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE); //check the header before mapping anything, since a stale
+			while (header.hasRemaining() && channel.read(header) >= 0) {} //snapshot that stays mapped can't be replaced on some systems
+			header.flip();
+			if (header.remaining() < SNAPSHOT_HEADER_SIZE
+					|| header.getInt() != SNAPSHOT_MAGIC || header.getInt() != SNAPSHOT_VERSION
+					|| header.getLong() != source.length() || header.getLong() != source.lastModified())
+				return null; //it's not for this version of this file
+			
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buf.position(SNAPSHOT_HEADER_SIZE);
+		}
+		
+		final double vbMinX = buf.getDouble(), vbMinY = buf.getDouble();
+		final double vbWidth = buf.getDouble(), vbHeight = buf.getDouble();
+		final double svgWidth = buf.getDouble(), svgHeight = buf.getDouble();
+		final int length = buf.getInt();
+		final int numPaths = buf.getInt();
+		final int numFormat = buf.getInt();
+		final int numArgs = buf.getInt();
+		
+		final List<String> format = new LinkedList<String>();
+		for (int i = 0; i < numFormat; i ++) {
+			final byte[] bytes = new byte[buf.getInt()];
+			buf.get(bytes);
+			format.add(new String(bytes, StandardCharsets.UTF_8));
+		}
 		
-		final Iterator<String> formatIterator = format.iterator();
-		final Iterator<Path> curveIterator = paths.iterator();
+		final int[] pathSizes = new int[numPaths];
+		buf.asIntBuffer().get(pathSizes);
+		buf.position(buf.position() + 4*numPaths);
+		final byte[] types = new byte[length];
+		buf.get(types);
+		final int[] argCounts = new int[length];
+		buf.asIntBuffer().get(argCounts);
+		buf.position(buf.position() + 4*length);
+		final double[] args = new double[numArgs];
+		buf.asDoubleBuffer().get(args);
+		buf.position(buf.position() + 8*numArgs);
+		final Topology topology = new Topology(buf);
 		
-		out.write(replacePlaceholders(formatIterator.next(), inWidth/inHeight));
-		while (curveIterator.hasNext()) {
-			out.write(closePaths(breakWraps(curveIterator.next())).toString(
-					inMinX, inMaxY, vbMinX, vbMinY,
-					Math.max(vbWidth, vbHeight)/Math.max(inWidth, inHeight)));
-			out.write(encode(formatIterator.next()));
+		final List<Path> paths = new ArrayList<Path>(numPaths);
+		int c = 0, a = 0;
+		for (int size: pathSizes) {
+			final Path path = new Path();
+			path.ensureCapacity(size);
+			for (int i = 0; i < size; i ++) {
+				path.add(new Command((char) types[c+i], Arrays.copyOfRange(args, a, a+argCounts[c+i])));
+				a += argCounts[c+i];
+			}
+			paths.add(path);
+			c += size;
+		}
+		
+		final SVGMap map = new SVGMap(paths, format, vbMinX, vbMinY, vbWidth, vbHeight,
+				svgWidth, svgHeight, length, topology, null);
+		map.indexPaths();
+		return map;
+	}
+	
+	
+	private void indexPaths() { //put a bounding box around each path and build a tree out of them
+		final double[][] boxes = new double[paths.size()][];
+		int i = 0;
+		for (Path path: paths) {
+			double[] box = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+					Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY }; //an empty path has an empty box
+			for (Command cmd: path) {
+				for (int j = 0; j+1 < cmd.args.length; j += 2) {
+					box[0] = Math.min(box[0], cmd.args[j]);
+					box[1] = Math.min(box[1], cmd.args[j+1]);
+					box[2] = Math.max(box[2], cmd.args[j]);
+					box[3] = Math.max(box[3], cmd.args[j+1]);
+				}
+			}
+			boxes[i] = box;
+			i ++;
+		}
+		index = new RTree(boxes);
+	}
+	
+	
+	public void save(List<Path> paths, File file, double inMinX, double inMaxY, double inWidth,
+			double inHeight) throws IOException {
+		save(paths, file, inMinX, inMaxY, inWidth, inHeight, SVGWriter.DEF_PRECISION, false);
+	}
+	
+	
+	/**
+	 * Write these paths into this map's format and save it.
+	 * @param paths - The projected paths, one for each path in this map.
+	 * @param file - The destination. If it ends in .svgz, it will be gzipped.
+	 * @param inMinX - The minimum x value of the projected paths.
+	 * @param inMaxY - The maximum y value of the projected paths.
+	 * @param inWidth - The width of the projected paths.
+	 * @param inHeight - The height of the projected paths.
+	 * @param precision - The number of decimal places to write.
+	 * @param relative - Whether to write path coordinates relative to the previous point, which
+	 * 		usually makes the file smaller.
+	 */
+	public void save(List<Path> paths, File file, double inMinX, double inMaxY, double inWidth,
+			double inHeight, int precision, boolean relative) throws IOException {
+		try (SVGWriter out = new SVGWriter(file, precision, relative)) {
+			final Iterator<String> formatIterator = format.iterator();
+			final Iterator<Path> curveIterator = paths.iterator();
+			
+			final double outScale = Math.max(vbWidth, vbHeight)/Math.max(inWidth, inHeight);
+			final double tolerance = Math.pow(10, -precision)/2/outScale; //snap together anything that would print the same
+			
+			out.writeText(replacePlaceholders(formatIterator.next(), inWidth/inHeight));
+			while (curveIterator.hasNext()) {
+				out.writePath(closePaths(curveIterator.next(), tolerance),
+						inMinX, inMaxY, vbMinX, vbMinY, outScale);
+				out.writeText(formatIterator.next());
+			}
 		}
-		out.close();
 	}
 	
 	
@@ -308,91 +630,168 @@ public class SVGMap implements Iterable<SVGMap.Path> {
 	}
 	
 	
-	private Path breakWraps(Path continuous) { //break excessively long commands, as they are likely wrapping over a discontinuity
-		if (continuous.size() <= 2) 	return continuous;
-		Path broken = new Path();
-		double[] lens = {Double.NaN, Double.NaN, Double.NaN}; //the revolving array of command lengths
-		for (int i = 0; i < continuous.size(); i ++) {
-			if (i < continuous.size()-1 && continuous.get(i+1).type != 'M')
-				lens[2] = Math.hypot( //compute this next length
-						continuous.get(i+1).args[0] - continuous.get(i).args[0],
-						continuous.get(i+1).args[1] - continuous.get(i).args[1]);
-			else
-				lens[2] = Double.NaN;
-			
-			char type = continuous.get(i).type;
-			if ((Double.isNaN(lens[0]) || lens[1] > 20*lens[0]) //and compare it to the last two lengths
-					&& (Double.isNaN(lens[2]) || lens[1] > 20*lens[2])) //if both sides are far longer or nonexistent
-				type = 'M'; //break this line
-			
-			broken.add(new Command(type, continuous.get(i).args.clone()));
-			lens[0] = lens[1];
-			lens[1] = lens[2];
-		}
-		
-		return broken;
-	}
-	
-	
-	private Path closePaths(Path open) { //replace plain loops with 'Z's and combine connected parts
+	/**
+	 * Replace plain loops with 'Z's and combine connected parts into chains. Endpoints are indexed
+	 * by position, so this takes linear time no matter how badly the Path has been fragmented.
+	 * @param open - The Path to close, which will not be modified.
+	 * @param tolerance - The distance within which two endpoints are considered the same.
+	 * @return A new Path with the same shapes, but with as few movetos as possible.
+	 */
+	private static Path closePaths(Path open, double tolerance) {
 		List<Path> parts = new ArrayList<Path>();
 		Path currentPart = null;
 		for (Command cmd: open) { //start by breaking the Path into parts,
-			if (cmd.type == 'M') { //separated by movetos
+			if (cmd.type == 'M' || currentPart == null) { //separated by movetos
 				if (currentPart != null)
 					parts.add(currentPart);
 				currentPart = new Path();
 			}
 			currentPart.add(cmd);
 		}
-		parts.add(currentPart);
+		if (currentPart != null)
+			parts.add(currentPart);
+		
+		final int n = parts.size();
+		final boolean[] used = new boolean[n];
+		final boolean[] ring = new boolean[n];
+		final EndpointIndex starts = new EndpointIndex(n, tolerance);
+		final EndpointIndex ends = new EndpointIndex(n, tolerance);
+		for (int i = 0; i < n; i ++) { //index all the endpoints
+			final Path part = parts.get(i);
+			final double[] start = startOf(part), end = endOf(part);
+			if (part.size() > 1 && start != null && end != null && starts.matches(start, end)) {
+				ring[i] = used[i] = true; //self-enclosing parts are left alone
+			}
+			else {
+				starts.add(start, i);
+				ends.add(end, i);
+			}
+		}
 		
 		Path closed = new Path();
-		for (int i = 0; i < parts.size(); i ++) { //now look through those parts
-			Path partI = parts.get(i);
-			if (partI.size() > 1
-					&& Arrays.equals(partI.get(0).args, partI.get(partI.size()-1).args)) { //if it is self-enclosing
-				partI.set(partI.size()-1, new Command('Z', new double[0])); //give it a closepath and send it on its way
+		final int[] visited = new int[n]; //the last chain for which we visited each part
+		for (int i = 0; i < n; i ++) { //now look through those parts
+			if (ring[i]) { //give each ring a closepath and send it on its way
+				closed.addAll(parts.get(i).subList(0, parts.get(i).size()-1));
+				closed.add(new Command('Z', new double[0]));
+				continue;
 			}
-			else { //if it is open
-				for (int j = i+1; j < parts.size(); j ++) { //look to see if there is anything that completes it
-					Path partJ = parts.get(j);
-					if (Arrays.equals(partI.get(0).args, partJ.get(partJ.size()-1).args)) { //if so,
-						partI.remove(0); //remove the useless moveto
-						partJ.addAll(partI); //combine them
-						partI = partJ;
-						parts.remove(j); //don't look at J anymone; it has been absorbed.
-						break;
-					}
-				}
+			if (used[i])
+				continue; //this one has already been absorbed into another chain
+			
+			int head = i; //walk backward to the start of this chain
+			visited[i] = i+1;
+			while (true) {
+				final int prev = ends.find(startOf(parts.get(head)), used, head);
+				if (prev < 0 || visited[prev] == i+1)
+					break; //stop at the start, or if we find ourselves going in circles
+				visited[prev] = i+1;
+				head = prev;
 			}
-			closed.addAll(partI); //now turn in whatever you've got
+			
+			Path chain = new Path(); //then walk forward, absorbing everything that connects
+			chain.addAll(parts.get(head));
+			used[head] = true;
+			while (true) {
+				final int next = starts.find(endOf(chain), used, -1);
+				if (next < 0)
+					break;
+				final Path partJ = parts.get(next);
+				chain.addAll(partJ.subList(1, partJ.size())); //remove the useless moveto
+				used[next] = true;
+			}
+			final double[] start = startOf(chain), end = endOf(chain);
+			if (chain.size() > 1 && start != null && end != null && starts.matches(start, end)) //if we went all the way around,
+				chain.set(chain.size()-1, new Command('Z', new double[0])); //close it
+			closed.addAll(chain); //now turn in whatever you've got
 		}
 		return closed;
 	}
 	
 	
+	private static double[] startOf(List<Command> part) { //the first point of a part, or null if it has none
+		if (part.isEmpty() || part.get(0).args.length < 2)
+			return null;
+		final double[] args = part.get(0).args;
+		return new double[] {args[0], args[1]};
+	}
+	
+	
+	private static double[] endOf(List<Command> part) { //the last point of a part, or null if it has none
+		if (part.isEmpty() || part.get(part.size()-1).args.length < 2)
+			return null;
+		final double[] args = part.get(part.size()-1).args;
+		return new double[] {args[args.length-2], args[args.length-1]};
+	}
+	
+	
 	private static boolean isNonELetter(char c) {
 		return (c >= 'A' && c <= 'Z' && c != 'E') || (c >= 'a' && c <= 'z' && c != 'e');
 	}
 	
 	
 	private static String formatDouble(double d) { //format numbers just the way I want them
-		String str = String.format("%04d", (int)Math.round(d*1000));
-		str = str.substring(0, str.length()-3) + "." + str.substring(str.length()-3);
-		return str.replaceFirst("\\.?0*$", "");
+		return SVGWriter.format(d, SVGWriter.DEF_PRECISION);
 	}
 	
 	
-	private static String encode(String s0) { //encode with the ampersand notation (I'm not sure what it's called)
-		String s1 = "";
-		for (int i = 0; i < s0.length(); i ++) {
-			if (s0.charAt(i) >= 128)
-				s1 += "&#" + (int)s0.charAt(i) + ";";
-			else
-				s1 += s0.charAt(i);
+	
+	/**
+	 * A spatial hash of path endpoints, for finding which parts connect to which
+	 * @author jkunimune
+	 */
+	private static class EndpointIndex {
+		
+		private final double cellSize;
+		private final Map<Long, Integer> buckets; //the most recently added part in each cell
+		private final int[] nextInBucket; //the part added to the same cell before this one
+		private final double[][] points; //the indexed endpoint of each part
+		
+		public EndpointIndex(int capacity, double tolerance) {
+			this.cellSize = tolerance;
+			this.buckets = new HashMap<Long, Integer>(2*capacity);
+			this.nextInBucket = new int[capacity];
+			this.points = new double[capacity][];
+		}
+		
+		public void add(double[] point, int idx) {
+			if (point == null)
+				return;
+			final long key = key(cell(point[0]), cell(point[1]));
+			points[idx] = point;
+			nextInBucket[idx] = buckets.getOrDefault(key, -1);
+			buckets.put(key, idx);
+		}
+		
+		/**
+		 * @return the index of some unused part whose point matches this one, or -1 if there is none.
+		 */
+		public int find(double[] point, boolean[] used, int exclude) {
+			if (point == null)
+				return -1;
+			final long cx = cell(point[0]), cy = cell(point[1]);
+			for (long i = cx-1; i <= cx+1; i ++) { //the match could be in any neighbouring cell
+				for (long j = cy-1; j <= cy+1; j ++) {
+					Integer idx = buckets.get(key(i, j));
+					for (int k = (idx != null) ? idx : -1; k >= 0; k = nextInBucket[k])
+						if (!used[k] && k != exclude && matches(points[k], point))
+							return k;
+				}
+			}
+			return -1;
+		}
+		
+		public boolean matches(double[] a, double[] b) {
+			return Math.abs(a[0] - b[0]) <= cellSize && Math.abs(a[1] - b[1]) <= cellSize;
+		}
+		
+		private long cell(double x) {
+			return (long)Math.floor(x/cellSize);
+		}
+		
+		private static long key(long i, long j) {
+			return (i << 32) ^ (j & 0xFFFFFFFFL);
 		}
-		return s1;
 	}
 	
 	
@@ -454,16 +853,27 @@ public class SVGMap implements Iterable<SVGMap.Path> {
 				}
 				else if (type == 'z' || type == 'Z') { //change this to 'L', too
 					args = new double[] {lastMove[0], lastMove[1]};
+					last[0] = lastMove[0];
+					last[1] = lastMove[1];
 					type = 'L';
 				}
 				else {
+					final int groupSize; //curves' control points are all relative to the same point
+					if (type == 'c' || type == 'C') 	groupSize = 6;
+					else if (type == 'q' || type == 'Q' || type == 's' || type == 'S')
+						groupSize = 4;
+					else 								groupSize = 2;
 					args = new double[argStrings.length];
+					final double[] ref = {last[0], last[1]};
 					for (int j = 0; j < args.length; j ++) {
 						args[j] = Double.parseDouble(argStrings[j]); //parse the coordinate
 						
 						if (type >= 'a')
-							args[j] += last[j%2]; //account for relative commands
-						last[j%2] = args[j];
+							args[j] += ref[j%2]; //account for relative commands
+						if ((j+1)%groupSize == 0) {
+							last[0] = ref[0] = args[j-1];
+							last[1] = ref[1] = args[j];
+						}
 					}
 					if (type >= 'a') //make all letters uppercase
 						type -= 32;
@@ -491,14 +901,6 @@ public class SVGMap implements Iterable<SVGMap.Path> {
 				this.add(new Command(type, args));
 			}
 		}
-		
-		public String toString(
-				double inMinX, double inMaxY, double outMinX, double outMinY, double outScale) {
-			String s = "";
-			for (Command c: this)
-				s += c.toString(inMinX, inMaxY, outMinX, outMinY, outScale)+" ";
-			return s;
-		}
 	}
 	
 	
@@ -525,14 +927,16 @@ public class SVGMap implements Iterable<SVGMap.Path> {
 		
 		public String toString(
 				double inMinX, double inMaxY, double outMinX, double outMinY, double outScale) {
-			String s = Character.toString(type);
+			StringBuilder s = new StringBuilder().append(type);
 			for (int i = 0; i < args.length; i ++) {
+				if (i > 0)
+					s.append(',');
 				if (i%2 == 0)
-					s += formatDouble(outMinX + (args[i]-inMinX)*outScale)+",";
+					s.append(formatDouble(outMinX + (args[i]-inMinX)*outScale));
 				else
-					s += formatDouble(outMinY + (inMaxY-args[i])*outScale)+",";
+					s.append(formatDouble(outMinY + (inMaxY-args[i])*outScale));
 			}
-			return s.substring(0, Math.max(1, s.length()-1));
+			return s.toString();
 		}
 	}
 	
@@ -0,0 +1,252 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package image;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import image.SVGMap.Command;
+import image.SVGMap.Path;
+
+/**
+ * A fast, streaming writer for SVG files. Numbers go straight into a byte buffer without ever
+ * becoming Strings, path data can be written relative to the previous point to save space, and
+ * files whose names end in .svgz are gzipped on the way out.
+ * 
+ * @author jkunimune
+ */
+public class SVGWriter implements Closeable {
+	
+	public static final int DEF_PRECISION = 3; //the number of decimal places to keep by default
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int MAX_NUMBER_LENGTH = 24; //the most characters a single number can take
+	
+	private final OutputStream out;
+	private final byte[] buffer;
+	private final byte[] digits; //scratch space for formatting numbers backwards
+	private int position; //the number of bytes currently in the buffer
+	private final int precision; //the number of decimal places
+	private final long unit; //10^precision
+	private final boolean relative; //whether to write path coordinates as deltas
+	private long lastX, lastY, startX, startY; //the quantised current point and subpath start
+	
+	
+	
+	public SVGWriter(File file) throws IOException {
+		this(file, DEF_PRECISION, false);
+	}
+	
+	
+	public SVGWriter(File file, int precision, boolean relative) throws IOException {
+		if (precision < 0 || precision > 9)
+			throw new IllegalArgumentException("I can't write "+precision+" decimal places.");
+		OutputStream stream = new FileOutputStream(file);
+		if (isCompressed(file))
+			stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+		this.out = stream;
+		this.buffer = new byte[BUFFER_SIZE];
+		this.digits = new byte[MAX_NUMBER_LENGTH];
+		this.position = 0;
+		this.precision = precision;
+		long u = 1;
+		for (int i = 0; i < precision; i ++)
+			u *= 10;
+		this.unit = u;
+		this.relative = relative;
+	}
+	
+	
+	
+	/**
+	 * @return whether this file should be gzipped, judging by its name
+	 */
+	public static boolean isCompressed(File file) {
+		return file.getName().toLowerCase().endsWith(".svgz");
+	}
+	
+	
+	/**
+	 * Write some markup, escaping anything that isn't ASCII with the ampersand notation.
+	 */
+	public void writeText(String s) throws IOException {
+		for (int i = 0; i < s.length(); i ++) {
+			final int c = s.codePointAt(i);
+			if (c >= 128) {
+				writeByte('&');
+				writeByte('#');
+				writeInteger(c);
+				writeByte(';');
+				if (Character.isSupplementaryCodePoint(c))
+					i ++; //skip the low surrogate
+			}
+			else {
+				writeByte(c);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Write the contents of a d attribute, transforming each coordinate to the output viewBox.
+	 */
+	public void writePath(Path path, double inMinX, double inMaxY, double outMinX, double outMinY,
+			double outScale) throws IOException {
+		lastX = lastY = startX = startY = 0;
+		for (Command cmd: path) {
+			final int groupSize; //the number of points that share a reference point in relative mode
+			switch (cmd.type) {
+			case 'Q':
+			case 'S':
+				groupSize = 2;
+				break;
+			case 'C':
+				groupSize = 3;
+				break;
+			default:
+				groupSize = 1;
+			}
+			
+			writeByte(relative ? Character.toLowerCase(cmd.type) : cmd.type);
+			long refX = lastX, refY = lastY;
+			for (int i = 0; i < cmd.args.length; i += 2) {
+				final long x = Math.round((outMinX + (cmd.args[i]-inMinX)*outScale)*unit);
+				final long y = Math.round((outMinY + (inMaxY-cmd.args[i+1])*outScale)*unit);
+				if (i > 0)
+					writeByte(',');
+				if (relative) {
+					writeFixed(x - refX);
+					writeByte(',');
+					writeFixed(y - refY);
+				}
+				else {
+					writeFixed(x);
+					writeByte(',');
+					writeFixed(y);
+				}
+				if ((i/2 + 1)%groupSize == 0) { //at the end of each group, move the current point
+					refX = lastX = x;
+					refY = lastY = y;
+				}
+				if (cmd.type == 'M' && i == 0) {
+					startX = x;
+					startY = y;
+				}
+			}
+			if (cmd.type == 'Z') {
+				lastX = startX;
+				lastY = startY;
+			}
+			writeByte(' ');
+		}
+	}
+	
+	
+	/**
+	 * Format a number just the way I want it: rounded to a fixed number of decimal places, with
+	 * no trailing zeros.
+	 */
+	public static String format(double d, int precision) {
+		long unit = 1;
+		for (int i = 0; i < precision; i ++)
+			unit *= 10;
+		final byte[] chars = new byte[MAX_NUMBER_LENGTH];
+		final int start = formatFixed(Math.round(d*unit), precision, unit, chars);
+		return new String(chars, start, chars.length - start);
+	}
+	
+	
+	@Override
+	public void close() throws IOException {
+		flush();
+		out.close();
+	}
+	
+	
+	private void writeFixed(long value) throws IOException { //write a quantised number with the decimal point put back in
+		if (position + MAX_NUMBER_LENGTH > buffer.length)
+			flush();
+		final int start = formatFixed(value, precision, unit, digits);
+		final int length = digits.length - start;
+		System.arraycopy(digits, start, buffer, position, length);
+		position += length;
+	}
+	
+	
+	private void writeInteger(long value) throws IOException {
+		if (position + MAX_NUMBER_LENGTH > buffer.length)
+			flush();
+		final int start = formatFixed(value, 0, 1, digits);
+		final int length = digits.length - start;
+		System.arraycopy(digits, start, buffer, position, length);
+		position += length;
+	}
+	
+	
+	private void writeByte(int b) throws IOException {
+		if (position >= buffer.length)
+			flush();
+		buffer[position] = (byte) b;
+		position ++;
+	}
+	
+	
+	private void flush() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+	}
+	
+	
+	private static int formatFixed(long value, int precision, long unit, byte[] chars) { //fill the end of chars with the number and return the index where it starts
+		final boolean negative = value < 0;
+		if (negative)
+			value = -value;
+		long whole = value/unit, fraction = value%unit;
+		int i = chars.length;
+		
+		if (fraction != 0) {
+			int places = precision;
+			while (fraction%10 == 0) { //skip the trailing zeros
+				fraction /= 10;
+				places --;
+			}
+			for (int j = 0; j < places; j ++) {
+				chars[--i] = (byte) ('0' + fraction%10);
+				fraction /= 10;
+			}
+			chars[--i] = '.';
+		}
+		do {
+			chars[--i] = (byte) ('0' + whole%10);
+			whole /= 10;
+		} while (whole != 0);
+		if (negative)
+			chars[--i] = '-';
+		return i;
+	}
+}
@@ -0,0 +1,542 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package image;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.UnaryOperator;
+
+import image.SVGMap.Command;
+import image.SVGMap.Path;
+
+/**
+ * The arcs that make up a set of paths, in the style of TopoJSON. Every border that two paths
+ * share is stored once, as a single arc, and each path is a list of references to arcs. This way
+ * each arc only needs to be simplified and projected once, and neighbours always line up.
+ * 
+ * @author jkunimune
+ */
+public class Topology {
+	
+	private final double[][] arcs; //the {lon0, lat0, lon1, lat1, ...} of each arc
+	private final int[][][] pathArcs; //for each path, for each part, the arcs in order, with ~i meaning arc i backwards. null if it has curves.
+	private final double[][] importance; //the Visvalingam-Whyatt area of each vertex of each arc
+	private final int[][] ranking; //the indices of each arc's vertices, from most to least important
+	private final double[] allImportance; //every vertex's importance, sorted, for vertex budgeting
+	
+	
+	
+	/**
+	 * Break some paths into arcs, and rank the vertices of the arcs.
+	 * @param paths - The paths, in longitude-latitude radians.
+	 */
+	public Topology(List<Path> paths) {
+		final Map<Vertex, Integer> vertexIds = new HashMap<Vertex, Integer>();
+		final List<double[]> vertices = new ArrayList<double[]>();
+		final List<List<int[]>> parts = new ArrayList<List<int[]>>(); //the vertex ids of each part of each path
+		final List<Boolean> rings = new ArrayList<Boolean>(); //whether each part loops back on itself
+		int numCurvyCommands = 0;
+		for (Path path: paths) { //first, identify all the vertices
+			if (!isTopologisable(path)) {
+				parts.add(null);
+				numCurvyCommands += path.size();
+				continue;
+			}
+			final List<int[]> pathParts = new ArrayList<int[]>();
+			int start = 0;
+			for (int i = 1; i <= path.size(); i ++) {
+				if (i == path.size() || path.get(i).type == 'M') {
+					int[] seq = new int[i - start];
+					int n = 0;
+					for (int j = start; j < i; j ++) {
+						final double[] point = path.get(j).args;
+						final Vertex key = new Vertex(point[0], point[1]);
+						Integer id = vertexIds.get(key);
+						if (id == null) {
+							id = vertices.size();
+							vertexIds.put(key, id);
+							vertices.add(point);
+						}
+						if (n == 0 || seq[n-1] != id) //skip repeated points
+							seq[n++] = id;
+					}
+					final boolean ring = n >= 4 && seq[0] == seq[n-1];
+					pathParts.add(Arrays.copyOf(seq, ring ? n-1 : n)); //rings don't need their last point; it's implied
+					rings.add(ring);
+					start = i;
+				}
+			}
+			parts.add(pathParts);
+		}
+		
+		final int numVertices = vertices.size(); //then, find the junctions
+		final boolean[] junction = new boolean[numVertices];
+		final int[][] neighbors = new int[numVertices][];
+		int r = 0;
+		for (List<int[]> pathParts: parts) {
+			if (pathParts == null)
+				continue;
+			for (int[] seq: pathParts) {
+				final boolean ring = rings.get(r++);
+				for (int i = 0; i < seq.length; i ++) {
+					final int prev, next;
+					if (ring) {
+						prev = seq[(i + seq.length - 1)%seq.length];
+						next = seq[(i + 1)%seq.length];
+					}
+					else {
+						prev = (i > 0) ? seq[i-1] : -1;
+						next = (i < seq.length-1) ? seq[i+1] : -1;
+						if (i == 0 || i == seq.length-1)
+							junction[seq[i]] = true; //line endpoints are always junctions
+					}
+					final int[] pair = { Math.min(prev, next), Math.max(prev, next) };
+					if (neighbors[seq[i]] == null)
+						neighbors[seq[i]] = pair;
+					else if (!Arrays.equals(neighbors[seq[i]], pair))
+						junction[seq[i]] = true; //anywhere two paths diverge is a junction
+				}
+			}
+		}
+		
+		final Map<ArcKey, Integer> arcIds = new HashMap<ArcKey, Integer>(); //finally, cut everything at the junctions
+		final List<int[]> arcVertices = new ArrayList<int[]>();
+		this.pathArcs = new int[parts.size()][][];
+		r = 0;
+		for (int p = 0; p < parts.size(); p ++) {
+			if (parts.get(p) == null)
+				continue;
+			pathArcs[p] = new int[parts.get(p).size()][];
+			for (int q = 0; q < parts.get(p).size(); q ++) {
+				int[] seq = parts.get(p).get(q);
+				if (rings.get(r++)) { //rotate rings to start at a junction, or at least somewhere consistent
+					int start = -1;
+					for (int i = 0; i < seq.length && start < 0; i ++)
+						if (junction[seq[i]])
+							start = i;
+					if (start < 0) {
+						start = 0;
+						for (int i = 1; i < seq.length; i ++)
+							if (seq[i] < seq[start])
+								start = i;
+						junction[seq[start]] = true;
+					}
+					final int[] rotated = new int[seq.length + 1];
+					for (int i = 0; i <= seq.length; i ++)
+						rotated[i] = seq[(start + i)%seq.length];
+					seq = rotated;
+				}
+				
+				final List<Integer> refs = new ArrayList<Integer>();
+				int start = 0;
+				for (int i = 1; i < seq.length; i ++) {
+					if (junction[seq[i]] || i == seq.length-1) {
+						refs.add(arcRef(Arrays.copyOfRange(seq, start, i+1), arcIds, arcVertices));
+						start = i;
+					}
+				}
+				if (seq.length == 1) //lone movetos are arcs, too
+					refs.add(arcRef(seq, arcIds, arcVertices));
+				pathArcs[p][q] = refs.stream().mapToInt(Integer::intValue).toArray();
+			}
+		}
+		
+		this.arcs = new double[arcVertices.size()][];
+		this.importance = new double[arcs.length][];
+		this.ranking = new int[arcs.length][];
+		int total = 0;
+		for (int a = 0; a < arcs.length; a ++) {
+			final int[] ids = arcVertices.get(a);
+			arcs[a] = new double[2*ids.length];
+			for (int i = 0; i < ids.length; i ++) {
+				arcs[a][2*i+0] = vertices.get(ids[i])[0];
+				arcs[a][2*i+1] = vertices.get(ids[i])[1];
+			}
+			importance[a] = rankArc(arcs[a]);
+			ranking[a] = rank(importance[a]);
+			total += ids.length;
+		}
+		
+		this.allImportance = new double[total + numCurvyCommands];
+		int n = 0;
+		for (double[] imp: importance) {
+			System.arraycopy(imp, 0, allImportance, n, imp.length);
+			n += imp.length;
+		}
+		Arrays.fill(allImportance, n, allImportance.length, Double.POSITIVE_INFINITY); //curves can't be simplified, but still count
+		Arrays.sort(allImportance);
+	}
+	
+	
+	/**
+	 * Read a Topology back from a snapshot, as written by write().
+	 */
+	public Topology(ByteBuffer buf) {
+		final int numArcs = buf.getInt();
+		final int numPaths = buf.getInt();
+		final int numVertices = buf.getInt();
+		final int numParts = buf.getInt();
+		final int numRefs = buf.getInt();
+		final int numImportance = buf.getInt();
+		
+		final int[] arcSizes = getInts(buf, numArcs);
+		final double[] coords = getDoubles(buf, 2*numVertices);
+		final double[] importances = getDoubles(buf, numVertices);
+		final int[] rankings = getInts(buf, numVertices);
+		final int[] pathSizes = getInts(buf, numPaths);
+		final int[] partSizes = getInts(buf, numParts);
+		final int[] refs = getInts(buf, numRefs);
+		this.allImportance = getDoubles(buf, numImportance);
+		
+		this.arcs = new double[numArcs][];
+		this.importance = new double[numArcs][];
+		this.ranking = new int[numArcs][];
+		int v = 0;
+		for (int a = 0; a < numArcs; a ++) {
+			arcs[a] = Arrays.copyOfRange(coords, 2*v, 2*(v + arcSizes[a]));
+			importance[a] = Arrays.copyOfRange(importances, v, v + arcSizes[a]);
+			ranking[a] = Arrays.copyOfRange(rankings, v, v + arcSizes[a]);
+			v += arcSizes[a];
+		}
+		
+		this.pathArcs = new int[numPaths][][];
+		int q = 0, i = 0;
+		for (int p = 0; p < numPaths; p ++) {
+			if (pathSizes[p] < 0)
+				continue; //this one has curves
+			pathArcs[p] = new int[pathSizes[p]][];
+			for (int j = 0; j < pathSizes[p]; j ++) {
+				pathArcs[p][j] = Arrays.copyOfRange(refs, i, i + partSizes[q]);
+				i += partSizes[q];
+				q ++;
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Save this Topology for later, in a format that the ByteBuffer constructor can read.
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		int numVertices = 0, numParts = 0, numRefs = 0;
+		for (double[] imp: importance)
+			numVertices += imp.length;
+		for (int[][] parts: pathArcs) {
+			if (parts != null) {
+				numParts += parts.length;
+				for (int[] part: parts)
+					numRefs += part.length;
+			}
+		}
+		
+		out.writeInt(arcs.length);
+		out.writeInt(pathArcs.length);
+		out.writeInt(numVertices);
+		out.writeInt(numParts);
+		out.writeInt(numRefs);
+		out.writeInt(allImportance.length);
+		for (double[] imp: importance)
+			out.writeInt(imp.length);
+		for (double[] arc: arcs)
+			for (double x: arc)
+				out.writeDouble(x);
+		for (double[] imp: importance)
+			for (double x: imp)
+				out.writeDouble(x);
+		for (int[] rank: ranking)
+			for (int x: rank)
+				out.writeInt(x);
+		for (int[][] parts: pathArcs)
+			out.writeInt((parts != null) ? parts.length : -1);
+		for (int[][] parts: pathArcs)
+			if (parts != null)
+				for (int[] part: parts)
+					out.writeInt(part.length);
+		for (int[][] parts: pathArcs)
+			if (parts != null)
+				for (int[] part: parts)
+					for (int ref: part)
+						out.writeInt(ref);
+		for (double x: allImportance)
+			out.writeDouble(x);
+	}
+	
+	
+	/**
+	 * Find the smallest tolerance that will keep the total number of vertices at or under maxVtx.
+	 * Shared arcs are only counted once, since they are only projected once.
+	 * @param maxVtx - The desired maximum number of vertices.
+	 * @return The tolerance to pass to assemble(), in square radians.
+	 */
+	public double toleranceForBudget(int maxVtx) {
+		if (maxVtx >= allImportance.length)
+			return 0;
+		else if (maxVtx <= 0)
+			return Double.POSITIVE_INFINITY;
+		else
+			return Math.nextUp(allImportance[allImportance.length-maxVtx-1]);
+	}
+	
+	
+	/**
+	 * Put a path back together out of its arcs.
+	 * @param p - The index of the path.
+	 * @param original - The path itself, for if it has curves and therefore has no arcs.
+	 * @param tolerance - The minimum Visvalingam-Whyatt area of any vertex to keep.
+	 * @param projection - The transformation to apply to each arc and curvy path, which should
+	 * 		preserve the first and last points of each.
+	 * @param cache - The transformed arcs that have been assembled so far, which will be filled
+	 * 		in as needed. It must be as long as the number of arcs.
+	 * @return The transformed path.
+	 */
+	public Path assemble(int p, Path original, double tolerance, UnaryOperator<Path> projection,
+			Path[] cache) {
+		if (pathArcs[p] == null)
+			return projection.apply(original);
+		
+		Path assembled = new Path();
+		for (int[] part: pathArcs[p]) {
+			boolean first = true;
+			for (int ref: part) {
+				final int a = (ref >= 0) ? ref : ~ref;
+				if (cache[a] == null)
+					cache[a] = projection.apply(extract(a, tolerance));
+				final Path arc = (ref >= 0) ? cache[a] : reverse(cache[a]);
+				if (arc.isEmpty())
+					continue;
+				if (first)
+					assembled.addAll(arc);
+				else
+					assembled.addAll(arc.subList(1, arc.size())); //skip the moveto at the junction
+				first = false;
+			}
+		}
+		return assembled;
+	}
+	
+	
+	public int numArcs() {
+		return arcs.length;
+	}
+	
+	
+	private Path extract(int a, double tolerance) { //get the simplified spherical path of an arc
+		final int[] rank = ranking[a];
+		final double[] imp = importance[a];
+		int min = 0, max = rank.length; //binary search for the number of vertices to keep
+		while (min < max) {
+			int mid = (min+max)/2;
+			if (imp[rank[mid]] >= tolerance) 	min = mid + 1;
+			else 								max = mid;
+		}
+		final int[] kept = Arrays.copyOf(rank, min);
+		Arrays.sort(kept); //put them back in order
+		Path path = new Path();
+		path.ensureCapacity(kept.length);
+		for (int i: kept)
+			path.add(new Command(path.isEmpty() ? 'M' : 'L',
+					new double[] {arcs[a][2*i], arcs[a][2*i+1]}));
+		return path;
+	}
+	
+	
+	private static Path reverse(Path forward) { //turn a path of movetos and linetos around, keeping the breaks in the same places
+		Path backward = new Path();
+		backward.ensureCapacity(forward.size());
+		for (int i = forward.size()-1; i >= 0; i --) {
+			final char type = (i == forward.size()-1) ? 'M' : forward.get(i+1).type; //the segment from i to i+1 was broken if i+1 was a moveto
+			backward.add(new Command(type, forward.get(i).args));
+		}
+		return backward;
+	}
+	
+	
+	private static int arcRef(int[] ids, Map<ArcKey, Integer> arcIds, List<int[]> arcVertices) { //find or make the arc with these vertices
+		final int[] reversed = new int[ids.length];
+		for (int i = 0; i < ids.length; i ++)
+			reversed[i] = ids[ids.length-1-i];
+		final boolean backward = Arrays.compare(reversed, ids) < 0; //store each arc in whichever direction sorts first
+		final ArcKey key = new ArcKey(backward ? reversed : ids);
+		Integer a = arcIds.get(key);
+		if (a == null) {
+			a = arcVertices.size();
+			arcIds.put(key, a);
+			arcVertices.add(key.ids);
+		}
+		return backward ? ~a : a;
+	}
+	
+	
+	private static boolean isTopologisable(Path path) { //only plain polylines can be broken into arcs
+		if (path.isEmpty() || path.get(0).type != 'M')
+			return false;
+		for (Command cmd: path)
+			if ((cmd.type != 'M' && cmd.type != 'L') || cmd.args.length != 2)
+				return false;
+		return true;
+	}
+	
+	
+	private static double[] rankArc(double[] arc) { //Visvalingam-Whyatt on an arc whose endpoints must stay put
+		final int n = arc.length/2;
+		final double[] imp = new double[n];
+		Arrays.fill(imp, Double.POSITIVE_INFINITY);
+		final boolean ring = n >= 4 && arc[0] == arc[2*n-2] && arc[1] == arc[2*n-1];
+		final int minInterior = ring ? 2 : 0; //rings must stay triangles; lines may become segments
+		if (n - 2 <= minInterior)
+			return imp; //nothing to remove
+		
+		final int[] prev = new int[n], next = new int[n]; //doubly linked list of survivors
+		final double[] area = new double[n];
+		final PriorityQueue<double[]> queue = new PriorityQueue<double[]>(
+				(a, b) -> Double.compare(a[0], b[0]));
+		next[0] = 1;
+		prev[n-1] = n-2;
+		for (int i = 1; i < n-1; i ++) {
+			prev[i] = i-1;
+			next[i] = i+1;
+			area[i] = triangleArea(arc, i-1, i, i+1);
+			queue.add(new double[] {area[i], i});
+		}
+		
+		int interior = n - 2;
+		double lastArea = 0;
+		while (interior > minInterior) {
+			final double[] entry = queue.poll();
+			final int i = (int)entry[1];
+			if (entry[0] != area[i] || imp[i] != Double.POSITIVE_INFINITY)
+				continue; //this entry is stale
+			lastArea = Math.max(lastArea, entry[0]); //keep it monotonic so the levels nest
+			imp[i] = lastArea;
+			interior --;
+			final int p = prev[i], q = next[i];
+			next[p] = q;
+			prev[q] = p;
+			if (p > 0) {
+				area[p] = triangleArea(arc, prev[p], p, q);
+				queue.add(new double[] {area[p], p});
+			}
+			if (q < n-1) {
+				area[q] = triangleArea(arc, p, q, next[q]);
+				queue.add(new double[] {area[q], q});
+			}
+		}
+		
+		if (ring) { //the ring lives or dies as a whole, with the area of its final triangle
+			final int a = next[0], b = next[a];
+			final double ringArea = Math.max(lastArea, triangleArea(arc, 0, a, b));
+			imp[0] = imp[a] = imp[b] = imp[n-1] = ringArea;
+		}
+		return imp;
+	}
+	
+	
+	private static int[] rank(double[] imp) { //sort the indices from most to least important
+		final Integer[] order = new Integer[imp.length];
+		for (int i = 0; i < order.length; i ++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> Double.compare(imp[b], imp[a]));
+		final int[] rank = new int[order.length];
+		for (int i = 0; i < rank.length; i ++)
+			rank[i] = order[i];
+		return rank;
+	}
+	
+	
+	private static double triangleArea(double[] arc, int i, int j, int k) { //in square radians, never mind the curvature
+		return Math.abs((arc[2*j]-arc[2*i])*(arc[2*k+1]-arc[2*i+1])
+				- (arc[2*k]-arc[2*i])*(arc[2*j+1]-arc[2*i+1]))/2;
+	}
+	
+	
+	private static int[] getInts(ByteBuffer buf, int n) {
+		final int[] array = new int[n];
+		buf.asIntBuffer().get(array);
+		buf.position(buf.position() + 4*n);
+		return array;
+	}
+	
+	
+	private static double[] getDoubles(ByteBuffer buf, int n) {
+		final double[] array = new double[n];
+		buf.asDoubleBuffer().get(array);
+		buf.position(buf.position() + 8*n);
+		return array;
+	}
+	
+	
+	
+	/**
+	 * A point, hashed by its exact coordinates
+	 */
+	private static class Vertex {
+		private final double lon, lat;
+		
+		public Vertex(double lon, double lat) {
+			this.lon = lon;
+			this.lat = lat;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Vertex
+					&& ((Vertex) other).lon == this.lon && ((Vertex) other).lat == this.lat;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31*Double.hashCode(lon + 0.) + Double.hashCode(lat + 0.); //adding zero gets rid of negative zero
+		}
+	}
+	
+	
+	/**
+	 * A sequence of vertex indices, hashed by value
+	 */
+	private static class ArcKey {
+		private final int[] ids;
+		
+		public ArcKey(int[] ids) {
+			this.ids = ids;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof ArcKey && Arrays.equals(((ArcKey) other).ids, this.ids);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(ids);
+		}
+	}
+}
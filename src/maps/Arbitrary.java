@@ -23,9 +23,8 @@
  */
 package maps;
 
-import java.util.Arrays;
-
-import utils.NumericalAnalysis;
+import utils.CubicSpline;
+import utils.Math2;
 
 /**
  * A class specifically for projections that use arbitrary tables of numbers.
@@ -34,7 +33,7 @@ import utils.NumericalAnalysis;
  */
 public class Arbitrary {
 	
-	private static final int ORDER = 2; //half the order of the polynomials used
+	private static final int INVERSE_RESOLUTION = 16; //the number of pieces in the inverse spline for each row of the table
 	
 	
 	public static final Projection ROBINSON = new ArbitraryProjection(
@@ -60,35 +59,60 @@ public class Arbitrary {
 	
 	
 	
+	/**
+	 * Make a pseudocylindrical projection from a table in the style of Robinson's.
+	 * @param title - The name of the projection.
+	 * @param inventor - Whoever came up with the table.
+	 * @param aspectRatio - The height of the map over its width.
+	 * @param table - Three rows: latitudes in degrees, evenly spaced from -90 to 90; the length
+	 * 		of each parallel relative to the equator; and the distance of each parallel from the
+	 * 		equator relative to the poles, which must increase.
+	 * @return the Projection.
+	 */
+	public static Projection fromTable(String title, String inventor, double aspectRatio,
+			double[][] table) {
+		return new ArbitraryProjection(title, inventor, aspectRatio, table);
+	}
+	
+	
+	
 	private static class ArbitraryProjection extends Projection {
 		
 		private final double yMax;
-		private final double[][] table;
+		private final CubicSpline plen, pdfe; //the parallel length and distance from the equator in terms of latitude
+		private final CubicSpline latOfPdfe; //and latitude in terms of the distance from the equator
 		
 		public ArbitraryProjection(String title, String inventor, double aspectRatio, double[][] table) {
 			super(title, 2, 2*aspectRatio, 0b1111, Type.PSEUDOCYLINDRICAL, Property.COMPROMISE, 2,
 					null, "designed by "+inventor);
+			final int n = table[0].length - 1;
+			if (table.length != 3 || table[1].length != n+1 || table[2].length != n+1)
+				throw new IllegalArgumentException("The table needs latitude, length, and distance rows of equal length.");
+			for (int i = 0; i <= n; i ++) {
+				if (Math.abs(table[0][i] - Math2.linInterp(i, 0, n, table[0][0], table[0][n])) > 1e-9)
+					throw new IllegalArgumentException("The latitudes must be evenly spaced.");
+				if (i > 0 && table[2][i] <= table[2][i-1])
+					throw new IllegalArgumentException("The distances from the equator must increase.");
+			}
+			
 			this.yMax = aspectRatio;
-			this.table = table;
+			final double latMin = Math.toRadians(table[0][0]), latMax = Math.toRadians(table[0][n]);
+			this.plen = CubicSpline.natural(latMin, latMax, table[1]); //do all the interpolation up front
+			this.pdfe = CubicSpline.natural(latMin, latMax, table[2]);
+			this.latOfPdfe = pdfe.inverse(INVERSE_RESOLUTION*n);
 		}
 		
 		public double[] project(double lat, double lon) {
 			return new double[] {
-					lon/Math.PI*smartInterpolate(Math.toDegrees(lat), table[0], table[1], ORDER),
-					yMax*smartInterpolate(Math.toDegrees(lat), table[0], table[2], ORDER) };
+					lon/Math.PI*plen.evaluate(lat),
+					yMax*pdfe.evaluate(lat) };
 		}
 		
 		public double[] inverse(double x, double y) {
+			final double lat = latOfPdfe.evaluate(y/yMax);
 			return new double[] {
-					Math.toRadians(smartInterpolate(y/yMax, table[2], table[0], ORDER)),
-					Math.PI*x/smartInterpolate(y/yMax, table[2], table[1], ORDER) };
-		}
-		
-		private static double smartInterpolate(double x, double[] X, double[] f, int k) {
-			int i = Arrays.binarySearch(X, x);
-			if (i < 0)	i = -i - 1; //if you couldn't find it, don't worry about it
-			return NumericalAnalysis.aitkenInterpolate(x, X, f,
-					Math.max(i-k,0), Math.min(i+k,X.length)); //just call aitken with the correct bounds
+					lat,
+					Math.PI*x/plen.evaluate(lat) };
 		}
 		
 	}
@@ -91,6 +91,10 @@ public class Azimuthal {
 			return new double[] { r*Math.sin(lon), -r*Math.cos(lon)};
 		}
 		
+		public Domain getDomain() {
+			return Domain.cap(0.2);
+		}
+		
 		public double[] inverse(double x, double y) {
 			return new double[] { Math.PI/2 - Math.atan(Math.hypot(x, y)), Math.atan2(x, -y) };
 		}
@@ -106,6 +110,10 @@ public class Azimuthal {
 			return new double[] { Math.cos(lat)*Math.sin(lon), -Math.cos(lat)*Math.cos(lon) };
 		}
 		
+		public Domain getDomain() {
+			return Domain.cap(0);
+		}
+		
 		public double[] inverse(double x, double y) {
 			double R = Math.hypot(x, y);
 			if (R <= 1)
@@ -135,6 +143,10 @@ public class Azimuthal {
 			return new double[] { r*Math.sin(lon), -r*Math.cos(lon) };
 		}
 		
+		public Domain getDomain() {
+			return Domain.cap(Math.asin(1/d)); //the horizon
+		}
+		
 		public double[] inverse(double x, double y) {
 			if (Double.isInfinite(d)) 	return ORTHOGRAPHIC.inverse(x, y);
 			final double h = Math.hypot(x, y);
@@ -79,6 +79,12 @@ public class Conic {
 			return new double[] { s*r*Math.sin(n*lon), s*(r0 - r*Math.cos(n*lon)) };
 		}
 		
+		public Domain getDomain() {
+			if (n == 0) 		return Domain.WHOLE;
+			else if (reversed) 	return new Domain(-Math.PI/2, 1.5, -Math.PI, Math.PI);
+			else 				return new Domain(-1.5, Math.PI/2, -Math.PI, Math.PI);
+		}
+		
 		public double[] inverse(double x, double y) {
 			if (n == 0) 	return Cylindrical.MERCATOR.inverse(x, y);
 			else if (reversed) {
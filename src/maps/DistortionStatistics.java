@@ -0,0 +1,169 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package maps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import utils.Histogram;
+import utils.QuantileSketch;
+
+/**
+ * A summary of the size and shape distortion of a projection over a set of points, which keeps
+ * moments, fine histograms, and quantile sketches instead of the distortion at every point.
+ * Pieces can be filled in parallel and merged.
+ * 
+ * @author jkunimune
+ */
+public class DistortionStatistics {
+	
+	private static final double MAX_DISTORTION = 25; //getDistortionAt discards anything beyond this
+	private static final int FINE_BINS = 25000; //the number of bin widths in the internal histograms
+	private static final int CHUNK_SIZE = 16384; //the number of points each worker does at a time
+	
+	private long num; //the number of points added
+	private long sizeNum, shapeNum; //the number of finite values of each kind
+	private double sizeSum, sizeSumSqr, shapeSum;
+	private final Histogram sizeHist, shapeHist; //the raw (not mean-adjusted) log area scales and log stretch factors
+	private final QuantileSketch sizeSketch, shapeSketch;
+	
+	
+	
+	public DistortionStatistics() {
+		this.sizeHist = new Histogram(-MAX_DISTORTION, MAX_DISTORTION, FINE_BINS);
+		this.shapeHist = new Histogram(0, MAX_DISTORTION, FINE_BINS);
+		this.sizeSketch = new QuantileSketch();
+		this.shapeSketch = new QuantileSketch();
+	}
+	
+	
+	/**
+	 * Evaluate the distortion of a projection at every point of a sample, in parallel.
+	 * @param proj - The projection to evaluate.
+	 * @param points - The points at which to evaluate it, as from Projection.globe() or
+	 * 		Projection.map(). null points are skipped.
+	 * @return The statistics of all the finite distortion values.
+	 */
+	public static DistortionStatistics of(Projection proj, double[][][] points) {
+		final List<int[]> chunks = new ArrayList<int[]>(); //{row, start, end} for each piece of work
+		for (int y = 0; y < points.length; y ++)
+			for (int x = 0; x < points[y].length; x += CHUNK_SIZE)
+				chunks.add(new int[] {y, x, Math.min(x + CHUNK_SIZE, points[y].length)});
+		
+		final DistortionStatistics[] pieces = IntStream.range(0, chunks.size()).parallel()
+				.mapToObj((i) -> {
+					final int[] chunk = chunks.get(i);
+					final DistortionStatistics piece = new DistortionStatistics();
+					for (int x = chunk[1]; x < chunk[2]; x ++)
+						if (points[chunk[0]][x] != null)
+							piece.add(proj.getDistortionAt(points[chunk[0]][x]));
+					return piece;
+				}).toArray(DistortionStatistics[]::new);
+		
+		final DistortionStatistics output = new DistortionStatistics();
+		for (DistortionStatistics piece: pieces) //merge them in order so the result doesn't depend on the thread count
+			output.merge(piece);
+		return output;
+	}
+	
+	
+	/**
+	 * Record one more point.
+	 * @param distortion - The {log area scale, log stretch factor} at that point, as from
+	 * 		Projection.getDistortionAt(). NaNs are ignored.
+	 */
+	public void add(double[] distortion) {
+		num ++;
+		if (Double.isFinite(distortion[0])) {
+			sizeNum ++;
+			sizeSum += distortion[0];
+			sizeSumSqr += distortion[0]*distortion[0];
+			sizeHist.add(distortion[0]);
+			sizeSketch.add(distortion[0]);
+		}
+		if (Double.isFinite(distortion[1])) {
+			shapeNum ++;
+			shapeSum += distortion[1];
+			shapeHist.add(distortion[1]);
+			shapeSketch.add(distortion[1]);
+		}
+	}
+	
+	
+	public DistortionStatistics merge(DistortionStatistics that) {
+		this.num += that.num;
+		this.sizeNum += that.sizeNum;
+		this.sizeSum += that.sizeSum;
+		this.sizeSumSqr += that.sizeSumSqr;
+		this.shapeNum += that.shapeNum;
+		this.shapeSum += that.shapeSum;
+		this.sizeHist.merge(that.sizeHist);
+		this.shapeHist.merge(that.shapeHist);
+		this.sizeSketch.merge(that.sizeSketch);
+		this.shapeSketch.merge(that.shapeSketch);
+		return this;
+	}
+	
+	
+	public long getCount() {
+		return num;
+	}
+	
+	public double getMeanSize() { //the log of the average area scale, which is what all sizes are relative to
+		return sizeSum/sizeNum;
+	}
+	
+	public double getSizeStdDev() {
+		return Math.sqrt(sizeSumSqr/sizeNum - sizeSum*sizeSum/((double)sizeNum*sizeNum));
+	}
+	
+	public double getShapeMean() {
+		return shapeSum/shapeNum;
+	}
+	
+	public double getSizePercentile(double p) { //the p-th percentile of the area scale, relative to the mean
+		return sizeSketch.quantile(p/100.) - getMeanSize();
+	}
+	
+	public double getShapePercentile(double p) {
+		return shapeSketch.quantile(p/100.);
+	}
+	
+	
+	/**
+	 * Sort the size distortions, relative to the mean, into a histogram.
+	 * @param min - The centre of the first bin.
+	 * @param max - The centre of the last bin.
+	 * @param num - The number of bin widths between min and max.
+	 * @return The histogram, whose total includes values that fell outside it.
+	 */
+	public Histogram getSizeHistogram(double min, double max, int num) {
+		return sizeHist.rebin(min, max, num, getMeanSize());
+	}
+	
+	public Histogram getShapeHistogram(double min, double max, int num) {
+		return shapeHist.rebin(min, max, num, 0);
+	}
+}
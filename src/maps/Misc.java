@@ -23,14 +23,13 @@
  */
 package maps;
 
-import org.apache.commons.math3.complex.Complex;
-
-import de.jtem.ellipticFunctions.Jacobi;
 import image.SVGMap.Path;
 import maps.Projection.Property;
 import maps.Projection.Type;
 import utils.Elliptic;
+import utils.Jacobi;
 import utils.Math2;
+import utils.MutableComplex;
 
 /**
  * All the projections that don't fit into any of the other categories.
@@ -44,34 +43,32 @@ public class Misc {
 					"Peirce Quincuncial", "A conformal projection that uses complex elliptic functions.",
 					2, 2, 0b1001, Type.OTHER, Property.CONFORMAL, 3) {
 		
-		private static final double K_RT_HALF = 1.85407; //this is approx K(sqrt(1/2))
+		private static final double K_RT_HALF = 1.8540746773013719; //this is K(sqrt(1/2))
 		
 		public double[] project(double lat, double lon) {
 			final double alat = Math.abs(lat);
 			final double wMag = Math.tan(Math.PI/4-alat/2);
-			final Complex w = new Complex(wMag*Math.sin(lon), -wMag*Math.cos(lon)); //this Complex comes from Apache Commons
-			final Complex k = new Complex(Math.sqrt(0.5));
-			Complex z = Elliptic.F(w.acos(),k).divide(K_RT_HALF).subtract(Complex.ONE).negate();
-			if (z.isInfinite() || z.isNaN())	z = new Complex(0);
-			double x = z.getReal(), y = z.getImaginary();
+			final MutableComplex z = Elliptic.Farccos(wMag*Math.sin(lon), -wMag*Math.cos(lon),
+					Math.sqrt(0.5), Elliptic.STANDARD, new MutableComplex());
+			double x = 1 - z.getRe()/K_RT_HALF, y = -z.getIm()/K_RT_HALF;
+			if (!Double.isFinite(x) || !Double.isFinite(y)) 	x = y = 0;
 			
 			if (lat < 0) {
 				if (x >= 0 && y >= 0)
-					z = new Complex(1-y, 1-x);
+					return new double[] {1-y, 1-x};
 				else if (x >= 0 && y < 0)
-					z = new Complex(1+y, -1+x);
+					return new double[] {1+y, -1+x};
 				else if (y >= 0)
-					z = new Complex(-1+y, 1+x);
+					return new double[] {-1+y, 1+x};
 				else
-					z = new Complex(-1-y, -1-x);
+					return new double[] {-1-y, -1-x};
 			}
-			return new double[] {z.getReal(), z.getImaginary()};
+			return new double[] {x, y};
 		}
 		
 		public double[] inverse(double x, double y) {
-			de.jtem.mfc.field.Complex u = new de.jtem.mfc.field.Complex(K_RT_HALF*(x+1), K_RT_HALF*y);
-			de.jtem.mfc.field.Complex k = new de.jtem.mfc.field.Complex(Math.sqrt(0.5)); //the rest comes from some fancy complex calculus
-			de.jtem.mfc.field.Complex ans = Jacobi.cn(u, k);
+			final MutableComplex ans = Jacobi.LEMNISCATIC.cn(
+					K_RT_HALF*(x+1), K_RT_HALF*y, new MutableComplex()); //the rest comes from some fancy complex calculus
 			double p = 2 * Math.atan(ans.abs());
 			double theta = Math.atan2(-ans.getRe(), ans.getIm());
 			double lambda = Math.PI/2 - p;
@@ -85,26 +82,24 @@ public class Misc {
 					"Guyou", "Peirce Quincuncial, rearranged a bit.", 2., 1, 0b1001,
 					Type.OTHER, Property.CONFORMAL, 3) {
 		
-		private static final double K_RT_HALF = 1.854; //this is approx K(sqrt(1/2))
+		private static final double K_RT_HALF = 1.8540746773013719; //this is K(sqrt(1/2))
 		private final double[] POLE = {0, -Math.PI/2, Math.PI/4};
 		
 		public double[] project(double lat, double lon) {
 			final double[] coords = obliquifySphc(lat,lon, POLE);
 			final double alat = Math.abs(coords[0]);
 			final double wMag = Math.tan(Math.PI/4-alat/2);
-			final Complex w = new Complex(wMag*Math.sin(coords[1]), -wMag*Math.cos(coords[1]));
-			final Complex k = new Complex(Math.sqrt(0.5));
-			Complex z = Elliptic.F(w.acos(),k).divide(-2*K_RT_HALF)
-					.multiply(new Complex(1,1)).add(new Complex(0,0.5));
-			if (z.isInfinite() || z.isNaN()) 	z = new Complex(0);
-			if (coords[0] < 0) 	z = z.conjugate().negate();
-			return new double[] {z.getReal(), z.getImaginary()};
+			final MutableComplex z = Elliptic.Farccos(wMag*Math.sin(coords[1]), -wMag*Math.cos(coords[1]),
+					Math.sqrt(0.5), Elliptic.STANDARD, new MutableComplex());
+			z.times(1/(-2*K_RT_HALF), 1/(-2*K_RT_HALF)).plus(0, 0.5);
+			if (!z.isFinite()) 	z.set(0, 0);
+			if (coords[0] < 0) 	z.conjugate().negate();
+			return new double[] {z.getRe(), z.getIm()};
 		}
 		
 		public double[] inverse(double x, double y) {
-			de.jtem.mfc.field.Complex u = new de.jtem.mfc.field.Complex(x-y-.5, x+y+.5).times(K_RT_HALF);
-			de.jtem.mfc.field.Complex k = new de.jtem.mfc.field.Complex(Math.sqrt(0.5)); //just some fancy complex calculus stuff
-			de.jtem.mfc.field.Complex ans = Jacobi.cn(u, k);
+			final MutableComplex ans = Jacobi.LEMNISCATIC.cn(
+					K_RT_HALF*(x-y-.5), K_RT_HALF*(x+y+.5), new MutableComplex()); //just some fancy complex calculus stuff
 			double p = 2 * Math.atan(ans.abs());
 			double theta = ans.arg();
 			double lambda = Math.PI/2 - p;
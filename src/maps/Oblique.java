@@ -30,7 +30,7 @@ package maps;
  */
 public class Oblique extends Projection {
 	
-	private final Projection base;
+	private Projection base; //not final, so that copies can have their own
 	private final double[] axis;
 	
 	
@@ -62,4 +62,12 @@ public class Oblique extends Projection {
 		this.height = base.height;
 	}
 	
+	
+	@Override
+	public Projection copy() {
+		final Oblique copy = (Oblique) super.copy();
+		copy.base = this.base.copy();
+		return copy;
+	}
+
 }
@@ -23,8 +23,8 @@
  */
 package maps;
 
-import de.jtem.mfc.field.Complex;
 import maps.Projection.Property;
+import utils.MutableComplex;
 
 /**
  * A class of maps that use octohedral octants. Very similar to Polyhedral, but much faster since
@@ -107,19 +107,20 @@ public class Octohedral {
 		private final double HEXAGON_SCALE = 1.112913; //this is 2^(2/3)/6*\int_0^\pi sin^(-1/3) x dx
 		private final double TOLERANCE = 1e-3;
 		private final double[] VERTEX = {0, Math.PI/4, -3*Math.PI/4};
+		private final double[] POLYNOMIAL = {
+				0, 1, 0, 0, 0, 0, 0, 1/21., 0, 0, 0, 1/99., 0, 16/1287. }; //the coefficients of the conformal mapping function's maclaurin series
 		
 		protected double[] faceProject(double lat, double lon) {
 			double[] poleCoords = {lat, lon};
 			double[] vertCoords = obliquifySphc(lat, lon, VERTEX); //look at an oblique aspect from the nearest vertex
 			if (poleCoords[0] > vertCoords[0]) { //if this point is closer to the pole
-				Complex w = Complex.fromPolar(Math.pow(Math.tan(Math.PI/4-lat/2), 2/3.), lon*2/3.);
-				Complex z = polynomial(w); //project it as normal
+				MutableComplex z = polynomial(MutableComplex.fromPolar(
+						Math.pow(Math.tan(Math.PI/4-lat/2), 2/3.), lon*2/3.)); //project it as normal
 				return new double[] {z.getRe(), z.getIm()};
 			}
 			else { //if it is closer to the vertex
-				Complex w = Complex.fromPolar(
-						Math.pow(Math.tan(Math.PI/4-vertCoords[0]/2), 2/3.), vertCoords[1]*2/3.);
-				Complex zSkew = polynomial(w); //use the maclaurin series centred there
+				MutableComplex zSkew = polynomial(MutableComplex.fromPolar(
+						Math.pow(Math.tan(Math.PI/4-vertCoords[0]/2), 2/3.), vertCoords[1]*2/3.)); //use the maclaurin series centred there
 				return new double[] {
 						-1/2.*zSkew.getRe() + Math.sqrt(3)/2*zSkew.getIm() + Math.sqrt(3)/2,
 						-Math.sqrt(3)/2*zSkew.getRe() - 1/2.*zSkew.getIm() + 1/2. };
@@ -127,18 +128,19 @@ public class Octohedral {
 		}
 		
 		protected double[] faceInverse(double x, double y) {
-			Complex z;
+			final MutableComplex z;
 			if (x < (1-y)/Math.sqrt(3)) //do the Newton Raphson from whichever vertex to which it is closest
-				z = new Complex(x, y);
+				z = new MutableComplex(x, y);
 			else
-				z = new Complex(-1/2.*(x-Math.sqrt(3)/2) - Math.sqrt(3)/2*(y-1/2.),
+				z = new MutableComplex(-1/2.*(x-Math.sqrt(3)/2) - Math.sqrt(3)/2*(y-1/2.),
 						Math.sqrt(3)/2*(x-Math.sqrt(3)/2) - 1/2.*(y-1/2.));
-			Complex w = z.divide(HEXAGON_SCALE);
-			Complex error = polynomial(w).minus(z);
+			final MutableComplex w = new MutableComplex().set(z).divide(HEXAGON_SCALE);
+			final MutableComplex error = polynomial(new MutableComplex().set(w)).minus(z);
+			final MutableComplex dzdw = new MutableComplex();
 			for (int i = 0; i < 8 && error.abs() > TOLERANCE; i ++) {
-				Complex dzdw = derivative(w);
-				w = w.minus(error.divide(dzdw));
-				error = polynomial(w).minus(z);
+				derivative(dzdw.set(w));
+				w.minus(error.divide(dzdw));
+				polynomial(error.set(w)).minus(z);
 			}
 			double[] latLon = { Math.PI/2 - 2*Math.atan(Math.pow(w.abs(), 3/2.)), w.arg()*3/2. }; //inverse conic it back to spherical coordinates
 			if (x < (1-y)/Math.sqrt(3)) //if it was closest to that vertex, the result is easy
@@ -147,18 +149,16 @@ public class Octohedral {
 				return obliquifyPlnr(latLon, VERTEX);
 		}
 		
-		private Complex polynomial(Complex w) { //an approximation of the true conformal mapping function
-			w = w.times(Complex.fromPolar(1, -Math.PI/6));
-			Complex z = w.plus(w.pow(7).divide(21))
-					.plus(w.pow(11).divide(99)).plus(w.pow(13).divide(1287/16.));
-			return z.divide(Complex.fromPolar(HEXAGON_SCALE, -Math.PI/6));
+		private MutableComplex polynomial(MutableComplex w) { //an approximation of the true conformal mapping function, which replaces w
+			w.times(Math.sqrt(3)/2, -1/2.); //rotate it by -30 degrees
+			w.polynomial(POLYNOMIAL, null, w);
+			return w.divide(HEXAGON_SCALE*Math.sqrt(3)/2, -HEXAGON_SCALE/2);
 		}
 		
-		private Complex derivative(Complex w) { //the derivative of polynomial()
-			w = w.times(Complex.fromPolar(1, -Math.PI/6));
-			Complex z = new Complex(1).plus(w.pow(6).divide(3))
-					.plus(w.pow(10).divide(9)).plus(w.pow(12).divide(99/16.));
-			return z.divide(Complex.fromPolar(HEXAGON_SCALE, -Math.PI/6));
+		private MutableComplex derivative(MutableComplex w) { //the derivative of polynomial(), which replaces w
+			w.times(Math.sqrt(3)/2, -1/2.);
+			w.polynomialDerivative(POLYNOMIAL, null, w);
+			return w.divide(HEXAGON_SCALE); //the rotations cancel by the chain rule
 		}
 	};
 	
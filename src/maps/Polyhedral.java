@@ -27,6 +27,7 @@ import maps.Projection.Property;
 import maps.Projection.Type;
 import utils.Dixon;
 import utils.Math2;
+import utils.MutableComplex;
 import utils.NumericalAnalysis;
 
 /**
@@ -45,16 +46,15 @@ public class Polyhedral {
 			4, null, "that really deserves more attention") {
 		
 		public double[] faceProject(double lat, double lon) {
-			final de.jtem.mfc.field.Complex z = de.jtem.mfc.field.Complex.fromPolar(
+			final MutableComplex z = MutableComplex.fromPolar(
 					Math.pow(2, 5/6.)*Math.tan(Math.PI/4-lat/2), lon);
-			final de.jtem.mfc.field.Complex w = Dixon.invFunc(z);
+			final MutableComplex w = Dixon.invFunc(z, new MutableComplex());
 			return new double[] { w.abs()*2/Dixon.PERIOD_THIRD, w.arg() }; //I don't understand Dixon functions well enough to say whence the 1.132 comes
 		}
 		
 		public double[] faceInverse(double r, double tht) {
-			final de.jtem.mfc.field.Complex w = de.jtem.mfc.field.Complex.fromPolar(
-					r*Dixon.PERIOD_THIRD/2, tht);
-			final de.jtem.mfc.field.Complex ans = Dixon.leeFunc(w).times(Math.pow(2, -5/6.));
+			final MutableComplex w = MutableComplex.fromPolar(r*Dixon.PERIOD_THIRD/2, tht);
+			final MutableComplex ans = Dixon.leeFunc(w, w).times(Math.pow(2, -5/6.));
 			return new double[] {
 					Math.PI/2 - 2*Math.atan(ans.abs()),
 					ans.arg() };
@@ -295,7 +295,7 @@ public class Polyhedral {
 		}
 		
 		public double[] faceInverse(double r, double th) {
-			if (Math.abs(th) > Math.PI/6) 	throw new IllegalArgumentException("Wait, what?");
+			if (Math.abs(th) > Math.PI/6) 	return null; //this can happen in the gaps between the faces
 			double x = r*Math.cos(th)*Math.atan(2); //cartesian coordinates in radians
 			double y = r*Math.sin(th)*Math.atan(2);
 			double a = Math.sqrt(3)*x + y; //angular distance up each side of the triangle
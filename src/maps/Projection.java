@@ -39,10 +39,12 @@ import utils.Math2;
  * 
  * @author jkunimune
  */
-public abstract class Projection {
+public abstract class Projection implements Cloneable {
 	
 	public static final double[] NORTH_POLE = {Math.PI/2, 0, 0};
 	
+	private static final int MAX_CUT_DEPTH = 16; //the number of times to bisect a segment before deciding it crosses an interruption
+	
 	
 	private final String name; //typically the name of the dude credited for it
 	private final String description; //a noun clause or sentence about it
@@ -293,6 +295,105 @@ public abstract class Projection {
 	}
 	
 	
+	/**
+	 * Project a Path from an equirectangular input onto this map, cutting it wherever it crosses
+	 * an interruption or the edge of the map, and adding vertices wherever a straight line would
+	 * stray too far from the true curve.
+	 * @param spherical The Path to project, in {longitude, latitude} pairs, in radians
+	 * @param pole The aspect of the map
+	 * @param precision The maximum allowable distance from the true curve, in map units
+	 * @return the projected Path, where every cut is marked by a new moveto
+	 */
+	public Path projectPath(Path spherical, double[] pole, double precision) {
+		Path planar = new Path();
+		double[] s0 = null, p0 = null; //the last spherical and planar vertices
+		for (Command cmd: spherical) {
+			if (cmd.args.length == 0) { //closepaths need no projecting
+				planar.add(new Command(cmd.type, new double[0]));
+				continue;
+			}
+			if (cmd.type == 'M' || cmd.type == 'L') { //straight lines get cut and resampled, one pair at a time
+				for (int k = 0; k < cmd.args.length; k += 2) {
+					final double[] s1 = { cmd.args[k+1], cmd.args[k] };
+					final double[] p1 = projectForPath(s1, pole);
+					if (cmd.type == 'M' && k == 0) //the first pair of a moveto is the only one that moves
+						planar.add(new Command('M', p1));
+					else if (p0 != null) //any other pair is an implicit lineto
+						cutAndResample(s0, p0, s1, p1, pole, precision, MAX_CUT_DEPTH, planar);
+					else
+						planar.add(new Command('L', p1));
+					s0 = s1;
+					p0 = p1;
+				}
+			}
+			else { //anything else gets its coordinates projected one at a time
+				final double[] args = new double[cmd.args.length];
+				for (int k = 0; k < args.length; k += 2) {
+					final double[] pk = projectForPath(
+							new double[] {cmd.args[k+1], cmd.args[k]}, pole);
+					args[k] = pk[0];
+					args[k+1] = pk[1];
+				}
+				planar.add(new Command(cmd.type, args));
+				s0 = new double[] { cmd.args[args.length-1], cmd.args[args.length-2] };
+				p0 = new double[] { args[args.length-2], args[args.length-1] };
+			}
+		}
+		return planar;
+	}
+	
+	
+	private void cutAndResample(double[] s0, double[] p0, double[] s1, double[] p1,
+			double[] pole, double precision, int depth, Path output) { //add the segment from s0 to s1 to output, plus any vertices or breaks it needs
+		final double[] sm = { (s0[0]+s1[0])/2, (s0[1]+s1[1])/2 }; //spherical (loxodromic) midpoint
+		final double[] pm = projectForPath(sm, pole); //planar midpoint
+		
+		final double error = Math2.lineSegmentDistance(pm[0], pm[1], p0[0], p0[1], p1[0], p1[1]); //the same test drawLoxodrome uses
+		final double skew = Math.abs( //but a midpoint that jumps to one end is no good either
+				Math.hypot(pm[0]-p0[0], pm[1]-p0[1]) - Math.hypot(p1[0]-pm[0], p1[1]-pm[1]))/2;
+		if (error <= precision && skew <= precision) { //if the straight line is good enough (NaN is never good enough)
+			output.add(new Command('L', p1));
+		}
+		else if (depth <= 0) { //if it is still bad after this much refinement, it must be a discontinuity
+			output.add(new Command('M', p1)); //so cut it
+		}
+		else { //otherwise, split it in half and try again
+			cutAndResample(s0, p0, sm, pm, pole, precision, depth-1, output);
+			cutAndResample(sm, pm, s1, p1, pole, precision, depth-1, output);
+		}
+	}
+	
+	
+	/**
+	 * Describe the part of the globe that this projection actually shows, in its own coordinates
+	 * (i.e. before the aspect is applied). Anything outside of it gets clamped or thrown away.
+	 * @return the visible Domain, which is the whole sphere unless otherwise specified
+	 */
+	public Domain getDomain() {
+		return Domain.WHOLE;
+	}
+	
+	
+	/**
+	 * Find some longitude-latitude boxes that cover everything this projection shows at the given
+	 * aspect, so that anything outside of them can be skipped. They may cover more than is
+	 * actually visible, but never less.
+	 * @param pole The aspect of the map
+	 * @return an array of {minLon, minLat, maxLon, maxLat} boxes, in radians
+	 */
+	public double[][] getVisibleBoxes(double[] pole) {
+		return getDomain().boundingBoxes(pole);
+	}
+	
+	
+	private double[] projectForPath(double[] coords, double[] pole) { //project a point, but keep it in the general vicinity of the map
+		final double[] p = project(coords, pole);
+		p[0] = Math.max(Math.min(p[0], width), -width);
+		p[1] = Math.max(Math.min(p[1], height), -height);
+		return p;
+	}
+	
+	
 	public static double[][][] globe(double dt) { //generate a matrix of coordinates based on the sphere
 		List<double[]> points = new ArrayList<double[]>();
 		for (double phi = -Math.PI/2+dt/2; phi < Math.PI/2; phi += dt) { // make sure phi is never exactly +-tau/4
@@ -321,8 +422,8 @@ public abstract class Projection {
 	}
 	
 	public double[] avgDistortion(double[][][] points) {
-		final double[][][] distDist = calculateDistortion(points);
-		return new double[] {Math2.stdDev(distDist[0]), Math2.mean(distDist[1])};
+		final DistortionStatistics stats = DistortionStatistics.of(this, points);
+		return new double[] {stats.getSizeStdDev(), stats.getShapeMean()};
 	}
 	
 	
@@ -477,6 +578,20 @@ public abstract class Projection {
 	}
 	
 	
+	/**
+	 * Make a copy of this projection whose parameters can be changed without affecting this one,
+	 * so that several threads can each have their own.
+	 * @return The copy, with the same name, parameters, and everything.
+	 */
+	public Projection copy() {
+		try {
+			return (Projection) super.clone(); //parameters are only ever replaced, never modified in place, so this is enough
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e); //it is, though
+		}
+	}
+	
+	
 	public final Projection transverse() {
 		return transverse(getName());
 	}
@@ -590,6 +705,84 @@ public abstract class Projection {
 	
 	
 	
+	/**
+	 * A latitude-longitude box on the sphere, in a projection's own coordinates, outside of which
+	 * that projection does not show anything
+	 * @author jkunimune
+	 */
+	public static class Domain {
+		
+		public static final Domain WHOLE = new Domain(-Math.PI/2, Math.PI/2, -Math.PI, Math.PI);
+		
+		private final double minLat, maxLat, minLon, maxLon;
+		
+		public Domain(double minLat, double maxLat, double minLon, double maxLon) {
+			this.minLat = minLat;
+			this.maxLat = maxLat;
+			this.minLon = minLon;
+			this.maxLon = maxLon;
+		}
+		
+		/**
+		 * @return a Domain containing everything at or above the given latitude
+		 */
+		public static Domain cap(double minLat) {
+			return new Domain(minLat, Math.PI/2, -Math.PI, Math.PI);
+		}
+		
+		public boolean isWhole() {
+			return minLat <= -Math.PI/2 && maxLat >= Math.PI/2 && maxLon - minLon >= 2*Math.PI;
+		}
+		
+		/**
+		 * Convert this Domain to absolute coordinates, conservatively.
+		 * @param pole The aspect of the map
+		 * @return an array of {minLon, minLat, maxLon, maxLat} boxes, in radians, which cover
+		 * 		this Domain
+		 */
+		public double[][] boundingBoxes(double[] pole) {
+			if (isWhole())
+				return new double[][] {{-Math.PI, -Math.PI/2, Math.PI, Math.PI/2}};
+			
+			if (pole == null || pole[0] == Math.PI/2) { //these are just a shift in longitude
+				final double shift = (pole == null) ? 0 : pole[1] + pole[2];
+				return lonRange(minLon + shift, maxLon + shift, minLat, maxLat);
+			}
+			else if (pole[0] == -Math.PI/2) { //and these are a flip
+				final double shift = pole[1] - pole[2] - Math.PI;
+				return lonRange(shift - maxLon, shift - minLon, -maxLat, -minLat);
+			}
+			else { //otherwise, settle for the smaller of the caps that contain the latitude band
+				final double northRadius = Math.PI/2 - minLat, southRadius = Math.PI/2 + maxLat;
+				if (northRadius <= southRadius)
+					return capBoxes(pole[0], pole[1], northRadius);
+				else
+					return capBoxes(-pole[0], pole[1] + Math.PI, southRadius);
+			}
+		}
+		
+		private static double[][] capBoxes(double lat0, double lon0, double radius) { //the boxes around a spherical cap
+			final double minLat = lat0 - radius, maxLat = lat0 + radius;
+			if (minLat <= -Math.PI/2 || maxLat >= Math.PI/2) //if it contains a pole, it spans all longitudes
+				return new double[][] {{-Math.PI, Math.max(minLat, -Math.PI/2),
+					Math.PI, Math.min(maxLat, Math.PI/2)}};
+			final double dLon = Math.asin(Math.sin(radius)/Math.cos(lat0)); //otherwise, it is bounded by the tangent meridians
+			return lonRange(lon0 - dLon, lon0 + dLon, minLat, maxLat);
+		}
+		
+		private static double[][] lonRange(double lon0, double lon1, double lat0, double lat1) { //box a range of longitudes, splitting it if it crosses the antimeridian
+			if (lon1 - lon0 >= 2*Math.PI)
+				return new double[][] {{-Math.PI, lat0, Math.PI, lat1}};
+			final double start = Math2.coerceAngle(lon0);
+			final double end = start + (lon1 - lon0);
+			if (end <= Math.PI)
+				return new double[][] {{start, lat0, end, lat1}};
+			else
+				return new double[][] {{start, lat0, Math.PI, lat1}, {-Math.PI, lat0, end - 2*Math.PI, lat1}};
+		}
+	}
+	
+	
 	/**
 	 * The most common geometric configurations of projections
 	 * @author jkunimune
@@ -25,7 +25,7 @@ package maps;
 
 import maps.Projection.Property;
 import maps.Projection.Type;
-import utils.NumericalAnalysis;
+import utils.AuxiliaryAngle;
 
 /**
  * Projections where y is a function of latitude
@@ -52,13 +52,12 @@ public class Pseudocylindrical {
 			"Mollweide", "An equal-area projection shaped like an ellipse.",
 			4, 2, 0b1101, Type.PSEUDOCYLINDRICAL, Property.EQUAL_AREA, 3) {
 		
+		private final AuxiliaryAngle auxiliary = new AuxiliaryAngle(
+				(t) -> (2*t + Math.sin(2*t)),
+				(t) -> (2 + 2*Math.cos(2*t)), 3);
+		
 		public double[] project(double lat, double lon) {
-			double tht = NumericalAnalysis.newtonRaphsonApproximation(
-					Math.PI*Math.sin(lat), lat,
-					(t) -> (2*t + Math.sin(2*t)),
-					(t) -> (2 + 2*Math.cos(2*t)), 1e-6);
-			if (Double.isNaN(tht))
-				tht = Math.PI*Math.signum(lat);
+			final double tht = auxiliary.solve(lat);
 			return new double[] { lon/Math.PI*2*Math.cos(tht), Math.sin(tht) };
 		}
 		
@@ -75,11 +74,12 @@ public class Pseudocylindrical {
 			"Eckert IV", "An equal-area projection released in a set of six (I'm only giving you the one because the others are useless).",
 			4, 2, 0b1101, Type.PSEUDOCYLINDRICAL, Property.EQUAL_AREA, 3) {
 		
+		private final AuxiliaryAngle auxiliary = new AuxiliaryAngle(
+				(t) -> (t + Math.sin(2*t)/2 + 2*Math.sin(t)),
+				(t) -> (1 + Math.cos(2*t) + 2*Math.cos(t)), 2);
+		
 		public double[] project(double lat, double lon) {
-			double tht = NumericalAnalysis.newtonRaphsonApproximation(
-					(2+Math.PI/2)*Math.sin(lat), lat,
-					(t) -> (t + Math.sin(2*t)/2 + 2*Math.sin(t)),
-					(t) -> (1 + Math.cos(2*t) + 2*Math.cos(t)), 1e-4);
+			final double tht = auxiliary.solve(lat);
 			return new double[] { lon/Math.PI*(1+Math.cos(tht)), Math.sin(tht)};
 		}
 		
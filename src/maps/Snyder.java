@@ -23,9 +23,9 @@
  */
 package maps;
 
-import de.jtem.mfc.field.Complex;
 import maps.Projection.Property;
 import maps.Projection.Type;
+import utils.MutableComplex;
 
 /**
  * A map optimised specifically for the 50 united states of America.
@@ -63,20 +63,19 @@ public class Snyder {
 			
 			final double g = Math.sin(lat)*Math.sin(POLE[0]) + Math.cos(lat)*Math.cos(POLE[0])*Math.cos(lon-POLE[1]);
 			final double s = 2/(1+g);
-			final Complex z = new Complex(s*Math.cos(lat)*Math.sin(lon-POLE[1]), s*(Math.sin(lat)*Math.cos(POLE[0]) - Math.cos(lat)*Math.sin(POLE[0])*Math.cos(lon-POLE[1])));
-			final Complex p = f(z);
+			final MutableComplex z = new MutableComplex(s*Math.cos(lat)*Math.sin(lon-POLE[1]), s*(Math.sin(lat)*Math.cos(POLE[0]) - Math.cos(lat)*Math.sin(POLE[0])*Math.cos(lon-POLE[1])));
+			final MutableComplex p = f(z, z);
 			return new double[] { p.getRe(), p.getIm() };
 		}
 		
 		public double[] inverse(double x, double y) {
-			final Complex p = new Complex(x, y);
-			Complex z = p; //initial guess
-			Complex error = f(z).minus(p);
+			final MutableComplex z = new MutableComplex(x, y); //initial guess
+			final MutableComplex error = f(z, new MutableComplex()).minus(x, y);
+			final MutableComplex deriv = new MutableComplex();
 			for (int i = 0; error.abs() > TOLERANCE; i ++) {
 				if (i == 9) 	return null;
-				final Complex deriv = fp(z);
-				z = z.minus(error.divide(deriv));
-				error = f(z).minus(p);
+				z.minus(error.divide(fp(z, deriv)));
+				f(z, error).minus(x, y);
 			}
 			double r = z.abs();
 			double phi = 2*Math.atan(r/2);
@@ -93,6 +92,16 @@ public class Snyder {
 			return super.project(lat, lon, null);
 		}
 		
+		@Override
+		public Domain getDomain() {
+			return new Domain(LIMS[0], LIMS[1], LIMS[2], LIMS[3]);
+		}
+		
+		@Override
+		public double[][] getVisibleBoxes(double[] pole) {
+			return super.getVisibleBoxes(null);
+		}
+		
 		@Override
 		public double[] inverse(double x, double y, double[] pole, boolean crop) {
 			return super.inverse(x, y, null, crop);
@@ -100,21 +109,13 @@ public class Snyder {
 	};
 	
 	
-	private static final Complex f(Complex z) {
-		Complex p = new Complex();
-		for (int k = A.length-1; k >= 0; k --) {
-			p = p.times(z).plus(new Complex(A[k], B[k]));
-		}
-		return p;
+	private static final MutableComplex f(MutableComplex z, MutableComplex out) {
+		return out.polynomial(A, B, z);
 	}
 	
 	
-	private static final Complex fp(Complex z) {
-		Complex p = new Complex();
-		for (int k = A.length-1; k > 0; k --) {
-			p = p.times(z).plus(new Complex(A[k], B[k]).times(k));
-		}
-		return p;
+	private static final MutableComplex fp(MutableComplex z, MutableComplex out) {
+		return out.polynomialDerivative(A, B, z);
 	}
 	
 }
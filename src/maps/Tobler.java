@@ -23,12 +23,17 @@
  */
 package maps;
 
-import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+
+import org.apache.commons.math3.special.Beta;
+import org.apache.commons.math3.special.Gamma;
 
 import maps.Projection.Property;
 import maps.Projection.Type;
-import utils.Math2;
-import utils.NumericalAnalysis;
+import utils.CubicSpline;
+import utils.LRUCache;
 
 /**
  * A class of values and functions used to approximate the Tobler projection
@@ -44,49 +49,132 @@ public class Tobler {
 					new String[]{"Std. Parallel","alpha","K"},
 					new double[][] {{0,89,30}, {0,1,.46}, {1,5,3.7}}) { //optimal parameters are 30.6,.50,3.63, but these defaults are more recognizably Tobler
 		
-		private static final int N = 20000;
-		private double alpha, kappa, epsilon; //epsilon is related to gamma, but defined somewhat differently
-		private double[] Z; //Z[i] = sin(phi) when y = i/(Z.length-1)
+		private final LRUCache<List<Double>, Prepared> cache =
+				new LRUCache<List<Double>, Prepared>(CACHE_SIZE); //copies share this, so every thread benefits from it
+		private Prepared prepared;
 		
 		public void setParameters(double... params) {
-			this.height = 2/Math.pow(Math.cos(Math.toRadians(params[0])),2);
-			this.alpha = params[1];
-			this.kappa = params[2];
-			this.epsilon = NumericalAnalysis.simpsonIntegrate(
-					0, 1, this::hyperEllipse, 1./N);
-			this.Z = NumericalAnalysis.simpsonODESolve(
-					1, N, this::dZdY, 1./N);
+			this.prepared = cache.computeIfAbsent(
+					DoubleStream.of(params).boxed().collect(Collectors.toList()),
+					(key) -> new Prepared(params));
+			this.height = prepared.height;
 		}
 		
 		public double[] project(double lat, double lon) {
-			final double z0 = Math.abs(Math.sin(lat));
-			final int i = Arrays.binarySearch(Z, z0);
-			final double y;
-			if (i >= 0)
-				y = i/(Z.length-1.);
-			else if (-i-1 >= Z.length)
-				y = Z[Z.length-1];
-			else
-				y = Math2.linInterp(z0, Z[-i-2], Z[-i-1], -i-2, -i-1)/
-						(Z.length-1.);
+			final double y = prepared.y(Math.abs(lat));
 			return new double[] {
-					lon * Math.abs(alpha + (1-alpha)*hyperEllipse(y)),
+					lon * prepared.width(y),
 					y * Math.signum(lat)*height/2 };
 		}
 		
 		public double[] inverse(double x, double y) {
 			return new double[] {
-					Math.asin(Z[(int)Math.round(Math.abs(2*y/height)*(Z.length-1))])*Math.signum(y),
-					x / Math.abs(alpha + (1-alpha)*hyperEllipse(2*y/height)) };
+					prepared.phi(Math.abs(2*y/height))*Math.signum(y),
+					x / prepared.width(2*y/height) };
+		}
+	};
+	
+	
+	private static final int N = 200; //the number of pieces in each spline
+	private static final int CACHE_SIZE = 64; //the number of parameter sets to remember
+	private static final double POLE_W = 1e-4; //closer than this to the top (in 1 - y), use the series instead of the splines
+	
+	
+	
+	/**
+	 * Everything the Tobler projection works out from its parameters, which is a fair bit and
+	 * doesn't change once it's worked out.
+	 */
+	private static final class Prepared {
+		
+		private final double height;
+		private final double alpha, kappa, epsilon; //epsilon is related to gamma, but defined somewhat differently
+		private final CubicSpline phiOfQ; //phi as a function of q = 1 - (1 - y)^(1/4), for the inverse
+		private final CubicSpline yOfS; //y as a function of s = sqrt(1 - phi/(pi/2)), for the forward projection
+		
+		private Prepared(double[] params) {
+			this.height = 2/Math.pow(Math.cos(Math.toRadians(params[0])),2);
+			this.alpha = params[1];
+			this.kappa = params[2];
+			this.epsilon = Math.exp(2*Gamma.logGamma(1+1/kappa) - Gamma.logGamma(1+2/kappa)); //the area of a quarter hyperellipse
+			
+			final double[] phi = new double[N+1], dphidq = new double[N+1];
+			for (int i = 0; i <= N; i ++) { //these variables tame the fractional powers of 1-y at the pole, until the series takes over
+				final double q = (double)i/N, w = Math.pow(1-q, 4), y = 1 - w;
+				final double eps = 2*Math.asin(Math.sqrt(oneMinusZ(w)/2)); //the colatitude, which is better behaved than sin(phi)
+				phi[i] = Math.PI/2 - eps;
+				dphidq[i] = (i < N) ? dZdY(y)/Math.sin(eps)*4*Math.pow(1-q, 3) : 0;
+			}
+			this.phiOfQ = new CubicSpline(0, 1, phi, dphidq);
+			
+			final double[] y = new double[N+1], dyds = new double[N+1];
+			for (int j = 0; j <= N; j ++) { //then turn it around
+				final double s = (double)j/N, lat = Math.PI/2*(1 - s*s);
+				final double q = phiOfQ.solve(lat);
+				y[j] = 1 - Math.pow(1-q, 4);
+				dyds[j] = (j > 0) ? -Math.cos(lat)/dZdY(y[j])*Math.PI*s : 0;
+			}
+			this.yOfS = new CubicSpline(0, 1, y, dyds);
+		}
+		
+		private double y(double phi) { //the forward projection, for positive phi
+			final double y = yOfS.evaluate(Math.sqrt(1 - phi/(Math.PI/2)));
+			if (1 - y >= POLE_W)
+				return y;
+			final double eps = Math.PI/2 - phi; //by the pole, the splines can't keep up with the fractional powers,
+			final double target = 2*Math.pow(Math.sin(eps/2), 2); //but the series can
+			if (target == 0)
+				return 1;
+			final double a = alpha/(alpha + (1-alpha)*epsilon);
+			final double b = (1-alpha)*Math.pow(kappa, 1/kappa)/(1+1/kappa)/(alpha + (1-alpha)*epsilon);
+			double w = Double.POSITIVE_INFINITY; //each term alone overestimates w,
+			if (a > 0) 	w = target/a;
+			if (b > 0) 	w = Math.min(w, Math.pow(target/b, kappa/(kappa+1)));
+			for (int i = 0; i < 8; i ++) //and Newton's method on a convex function comes down from above without overshooting
+				w -= (oneMinusZNearPole(w) - target)/dOneMinusZNearPoledW(w);
+			return 1 - w;
+		}
+		
+		private double phi(double y) { //the inverse projection, for positive y
+			final double w = 1 - y;
+			if (w >= POLE_W)
+				return phiOfQ.evaluate(1 - Math.sqrt(Math.sqrt(w)));
+			else
+				return Math.PI/2 - 2*Math.asin(Math.sqrt(oneMinusZNearPole(w)/2));
+		}
+		
+		private double oneMinusZ(double w) { //one minus the normalised area up to y = 1 - w, computed without cancellation
+			final double yKappa = Math.exp(kappa*Math.log1p(-w));
+			final double area; //the area under the hyperellipse above y
+			if (yKappa < .5) //the beta function is only accurate for small arguments, so pick whichever side has one
+				area = epsilon*(1 - Beta.regularizedBeta(yKappa, 1/kappa, 1+1/kappa));
+			else
+				area = epsilon*Beta.regularizedBeta(-Math.expm1(kappa*Math.log1p(-w)), 1+1/kappa, 1/kappa);
+			return (alpha*w + (1-alpha)*area)/(alpha + (1-alpha)*epsilon);
+		}
+		
+		private double oneMinusZNearPole(double w) { //the same thing, by its first few terms in w
+			final double area = Math.pow(kappa, 1/kappa)*Math.pow(w, 1+1/kappa)*(
+					1/(1+1/kappa) - (kappa-1)/(2*kappa)*w/(2+1/kappa));
+			return (alpha*w + (1-alpha)*area)/(alpha + (1-alpha)*epsilon);
+		}
+		
+		private double dOneMinusZNearPoledW(double w) { //and its derivative, which unlike dZdY doesn't lose w to roundoff
+			final double width = Math.pow(kappa, 1/kappa)*Math.pow(w, 1/kappa)*(
+					1 - (kappa-1)/(2*kappa)*w);
+			return (alpha + (1-alpha)*width)/(alpha + (1-alpha)*epsilon);
+		}
+		
+		private double width(double y) {
+			return Math.abs(alpha + (1-alpha)*hyperEllipse(y));
 		}
 		
-		public double dZdY(double y) {
-			return Math.abs((alpha + (1-alpha)*hyperEllipse(y))/
-					(alpha + (1-alpha)*epsilon));
+		private double dZdY(double y) {
+			return width(y)/(alpha + (1-alpha)*epsilon);
 		}
 		
-		public double hyperEllipse(double y) {
+		private double hyperEllipse(double y) {
 			return Math.pow(1 - Math.pow(Math.abs(y),kappa), 1/kappa);
 		}
-	};
+	}
 }
@@ -0,0 +1,109 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package utils;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A fast solver for the auxiliary angle of pseudocylindrical projections like Mollweide and
+ * Eckert IV, where theta is defined implicitly by f(theta) = f(pi/2)*sin(phi). It interpolates a
+ * table for a first guess, then polishes that with a single step of Newton's method.
+ * 
+ * The table is in terms of t = (pi/2 - |phi|)^(2/p), where p is the order at which f touches its
+ * maximum at the pole; in terms of t, pi/2 - |theta| is smooth all the way to the pole, so the
+ * interpolation never has to chase a singularity.
+ * 
+ * @author jkunimune
+ */
+public class AuxiliaryAngle {
+	
+	private static final int N = 256; //the number of pieces in the table
+	
+	private final DoubleUnaryOperator f, dfdt;
+	private final int order;
+	private final double fMax;
+	private final CubicSpline table; //pi/2 - theta as a function of t
+	
+	
+	
+	/**
+	 * Set up a solver for a particular equation.
+	 * @param f - The function, which must be odd and increase from -pi/2 to pi/2.
+	 * @param dfdt - Its derivative.
+	 * @param order - The number of the first nonvanishing derivative of f at pi/2, which is 3 for
+	 * 		Mollweide and 2 for Eckert IV.
+	 */
+	public AuxiliaryAngle(DoubleUnaryOperator f, DoubleUnaryOperator dfdt, int order) {
+		this.f = f;
+		this.dfdt = dfdt;
+		this.order = order;
+		this.fMax = f.applyAsDouble(Math.PI/2);
+		
+		final double tMax = Math.pow(Math.PI/2, 2./order);
+		final double[] delta = new double[N+1], dDeltadt = new double[N+1];
+		for (int i = 0; i <= N; i ++) {
+			final double t = tMax*i/N;
+			final double eps = Math.pow(t, order/2.); //the colatitude
+			final double target = fMax*Math.cos(eps); //f(pi/2 - delta) should be this
+			double lo = 0, hi = Math.PI/2;
+			for (int k = 0; k < 60; k ++) { //bisection is slow, but this only happens once
+				final double mid = (lo + hi)/2;
+				if (f.applyAsDouble(Math.PI/2 - mid) > target) 	lo = mid;
+				else 	hi = mid;
+			}
+			delta[i] = (lo + hi)/2;
+			dDeltadt[i] = fMax*Math.sin(eps)*order/2*Math.pow(t, order/2. - 1)/
+					dfdt.applyAsDouble(Math.PI/2 - delta[i]);
+		}
+		final double h = 1e-4; //at the pole that's 0/0, so use the leading terms: f'(pi/2 - delta) ~ a*delta^(p-1)
+		final double a = 2*dfdt.applyAsDouble(Math.PI/2 - h)/Math.pow(h, order-1)
+				- dfdt.applyAsDouble(Math.PI/2 - 2*h)/Math.pow(2*h, order-1);
+		dDeltadt[0] = Math.pow(order*fMax/(2*a), 1./order);
+		this.table = new CubicSpline(0, tMax, delta, dDeltadt);
+	}
+	
+	
+	/**
+	 * Find the auxiliary angle for a latitude.
+	 * @param phi - The latitude in radians.
+	 * @return theta such that f(theta) = f(pi/2)*sin(phi).
+	 */
+	public double solve(double phi) {
+		final double eps = Math.PI/2 - Math.abs(phi);
+		final double t;
+		if (order == 2) 	t = eps;
+		else if (order == 3) 	t = Math.cbrt(eps*eps);
+		else 	t = Math.pow(eps, 2./order);
+		
+		final double delta = table.evaluate(t); //look it up
+		final double tht = Math.PI/2 - delta;
+		final double step = (f.applyAsDouble(tht) - fMax*Math.sin(Math.abs(phi)))/
+				dfdt.applyAsDouble(tht); //then polish it
+		if (Math.abs(step) < delta/2) //right by the pole, the derivative vanishes and this could go anywhere
+			return Math.copySign(tht - step, phi);
+		else
+			return Math.copySign(tht, phi);
+	}
+
+}
@@ -0,0 +1,153 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A little file of named arrays of numbers, for long calculations to save their progress in
+ * so that they can pick up where they left off if they get interrupted. It gets rewritten, all
+ * at once, whenever something changes and it hasn't been written in a while.
+ * 
+ * @author jkunimune
+ */
+public class Checkpoint {
+	
+	private static final int MAGIC = 0x4D434B50; //"MCKP"
+	private static final int VERSION = 1;
+	
+	private final File file;
+	private final long interval; //the minimum time between saves, in milliseconds
+	private final Map<String, double[]> entries; //everything we know, sorted so the file comes out the same every time
+	private long lastSave; //when we last saved, in milliseconds
+	
+	
+	
+	/**
+	 * Open a checkpoint file.
+	 * @param file - The file in which to keep it.
+	 * @param interval - The minimum time between saves, in milliseconds.
+	 * @param resume - Should we read what's already in the file? If false, we start from scratch
+	 * 		and the file will eventually get overwritten.
+	 * @throws IOException if the file exists but can't be read.
+	 */
+	public Checkpoint(File file, long interval, boolean resume) throws IOException {
+		this.file = file;
+		this.interval = interval;
+		this.entries = new TreeMap<String, double[]>();
+		this.lastSave = System.currentTimeMillis();
+		if (resume && file.exists())
+			this.load();
+	}
+	
+	
+	public synchronized double[] get(String key) {
+		final double[] value = entries.get(key);
+		return (value != null) ? value.clone() : null;
+	}
+	
+	public synchronized boolean contains(String key) {
+		return entries.containsKey(key);
+	}
+	
+	
+	/**
+	 * Remember an array under some name, and save it to disk if it's been a while.
+	 * @param key - The name.
+	 * @param value - The array, which is copied.
+	 */
+	public synchronized void put(String key, double[] value) {
+		entries.put(key, value.clone());
+		saveIfDue();
+	}
+	
+	public synchronized void remove(String key) {
+		entries.remove(key);
+		saveIfDue();
+	}
+	
+	
+	/**
+	 * Write everything to disk now, replacing the file all at once, so that a crash halfway
+	 * through never leaves a broken checkpoint.
+	 * @throws IOException if the file can't be written.
+	 */
+	public synchronized void save() throws IOException {
+		final File temp = new File(file.getPath()+".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, double[]> entry: entries.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().length);
+				for (double x: entry.getValue())
+					out.writeDouble(x);
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		lastSave = System.currentTimeMillis();
+	}
+	
+	
+	private void saveIfDue() {
+		if (System.currentTimeMillis() - lastSave < interval)
+			return;
+		try {
+			save();
+		} catch (IOException e) { //losing a checkpoint isn't worth stopping the calculation over
+			e.printStackTrace();
+		}
+	}
+	
+	
+	private void load() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file+" is not a checkpoint I can read.");
+			final int n = in.readInt();
+			for (int i = 0; i < n; i ++) {
+				final String key = in.readUTF();
+				final double[] value = new double[in.readInt()];
+				for (int j = 0; j < value.length; j ++)
+					value[j] = in.readDouble();
+				entries.put(key, value);
+			}
+		}
+	}
+}
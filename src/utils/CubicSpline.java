@@ -0,0 +1,169 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package utils;
+
+
+/**
+ * A piecewise cubic Hermite interpolant on evenly spaced knots, so that finding the right piece
+ * is just a division, and evaluating it is a handful of multiplications.
+ * 
+ * @author jkunimune
+ */
+public class CubicSpline {
+	
+	private final double x0, x1, dx; //the domain and the knot spacing
+	private final double[] y, dydx; //the values and slopes at the knots
+	
+	
+	
+	/**
+	 * Build a spline through some values with some slopes.
+	 * @param x0 - The first knot.
+	 * @param x1 - The last knot.
+	 * @param y - The value at each knot, evenly spaced from x0 to x1.
+	 * @param dydx - The derivative at each knot.
+	 */
+	public CubicSpline(double x0, double x1, double[] y, double[] dydx) {
+		if (y.length < 2 || y.length != dydx.length)
+			throw new IllegalArgumentException("A spline needs at least two knots, and one slope for each.");
+		this.x0 = x0;
+		this.x1 = x1;
+		this.dx = (x1 - x0)/(y.length - 1);
+		this.y = y;
+		this.dydx = dydx;
+	}
+	
+	
+	/**
+	 * Build the natural cubic spline through some values, the smoothest curve through them whose
+	 * second derivative vanishes at the ends.
+	 * @param x0 - The first knot.
+	 * @param x1 - The last knot.
+	 * @param y - The value at each knot, evenly spaced from x0 to x1.
+	 */
+	public static CubicSpline natural(double x0, double x1, double[] y) {
+		final int n = y.length - 1;
+		final double h = (x1 - x0)/n;
+		final double[] m = new double[n+1]; //the second derivatives, which are zero at the ends
+		final double[] c = new double[n+1]; //the modified superdiagonal for the Thomas algorithm
+		for (int i = 1; i < n; i ++) { //sweep down the tridiagonal system m[i-1] + 4m[i] + m[i+1] = 6(y[i-1] - 2y[i] + y[i+1])/h^2
+			final double denom = 4 - c[i-1];
+			c[i] = 1/denom;
+			m[i] = (6*(y[i-1] - 2*y[i] + y[i+1])/(h*h) - m[i-1])/denom;
+		}
+		for (int i = n-2; i > 0; i --) //and back up
+			m[i] -= c[i]*m[i+1];
+		
+		final double[] dydx = new double[n+1]; //the Hermite form just needs the slopes
+		for (int i = 0; i < n; i ++)
+			dydx[i] = (y[i+1] - y[i])/h - h*(2*m[i] + m[i+1])/6;
+		dydx[n] = (y[n] - y[n-1])/h + h*(m[n-1] + 2*m[n])/6;
+		return new CubicSpline(x0, x1, y, dydx);
+	}
+	
+	
+	/**
+	 * Evaluate the spline. Anything outside the domain gets clamped to the nearest end.
+	 */
+	public double evaluate(double x) {
+		final double s = Math.min(Math.max((x - x0)/dx, 0), y.length - 1);
+		final int i = Math.min((int)s, y.length - 2);
+		final double t = s - i;
+		final double h00 = (1 + 2*t)*(1 - t)*(1 - t), h10 = t*(1 - t)*(1 - t);
+		final double h01 = t*t*(3 - 2*t), h11 = t*t*(t - 1);
+		return h00*y[i] + h10*dx*dydx[i] + h01*y[i+1] + h11*dx*dydx[i+1];
+	}
+	
+	
+	/**
+	 * Evaluate the derivative of the spline, clamping like evaluate() does.
+	 */
+	public double derivative(double x) {
+		final double s = Math.min(Math.max((x - x0)/dx, 0), y.length - 1);
+		final int i = Math.min((int)s, y.length - 2);
+		final double t = s - i;
+		final double g00 = 6*t*(t - 1), g10 = (1 - t)*(1 - 3*t);
+		final double g01 = -g00, g11 = t*(3*t - 2);
+		return (g00*y[i] + g01*y[i+1])/dx + g10*dydx[i] + g11*dydx[i+1];
+	}
+	
+	
+	/**
+	 * Find where this spline, which must be increasing, reaches some value. This is a search and
+	 * some Newton's method, so it's meant for setting things up rather than for every point.
+	 * @param target - The value to reach.
+	 * @return x such that evaluate(x) == target, or the nearest end if it never does.
+	 */
+	public double solve(double target) {
+		if (target <= y[0]) 	return x0;
+		if (target >= y[y.length-1]) 	return x1;
+		int lo = 0, hi = y.length-1; //find the piece that contains it
+		while (hi - lo > 1) {
+			final int mid = (lo + hi)/2;
+			if (y[mid] <= target) 	lo = mid;
+			else 	hi = mid;
+		}
+		double a = x0 + lo*dx, b = x0 + hi*dx;
+		double x = Math2.linInterp(target, y[lo], y[hi], a, b); //guess linearly,
+		for (int k = 0; k < 60; k ++) { //then polish it with Newton's method, bisecting when that goes astray
+			final double error = evaluate(x) - target;
+			if (error == 0) 	break;
+			if (error < 0) 	a = x;
+			else 	b = x;
+			double next = x - error/derivative(x);
+			if (!(next > a && next < b))
+				next = (a + b)/2;
+			if (Math.abs(next - x) <= 1e-15*dx)
+				break;
+			x = next;
+		}
+		return x;
+	}
+	
+	
+	/**
+	 * Build a spline of the inverse of this one, which must be increasing.
+	 * @param n - The number of pieces into which to break the inverse.
+	 * @return a CubicSpline x(y) on evenly spaced values of y.
+	 */
+	public CubicSpline inverse(int n) {
+		final double yMin = y[0], yMax = y[y.length-1];
+		final double[] x = new double[n+1], dxdy = new double[n+1];
+		for (int j = 0; j <= n; j ++) {
+			x[j] = solve(yMin + (yMax - yMin)*j/n);
+			dxdy[j] = 1/derivative(x[j]);
+		}
+		return new CubicSpline(yMin, yMax, x, dxdy);
+	}
+	
+	
+	public double getMin() {
+		return this.x0;
+	}
+	
+	public double getMax() {
+		return this.x1;
+	}
+
+}
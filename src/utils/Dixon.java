@@ -23,8 +23,6 @@
  */
 package utils;
 
-import de.jtem.mfc.field.Complex;
-
 /**
  * A class with a few handy Dixon elliptic functions as they pertain to the Lee conformal projection.
  * All the algorithms here came directly from L.P. Lee's paper,
@@ -51,29 +49,30 @@ public class Dixon {
 	
 	/**
 	 * the 28th order McLaurin polynomial for 2sm(w/2)cm(w/2)
+	 * @param out - the number in which to put the result, which may be w itself
 	 */
-	public static Complex leeFunc(Complex w) {
-		Complex w3 = w.pow(3);
-		Complex sum = new Complex(0);
-		for (int i = COEF.length-1; i >= 0; i --)
-			sum = sum.times(w3).plus(COEF[i]);
-		return sum.times(w);
+	public static MutableComplex leeFunc(MutableComplex w, MutableComplex out) {
+		final double wRe = w.getRe(), wIm = w.getIm();
+		out.set(w).pow(3);
+		return out.polynomial(COEF, null, out).times(wRe, wIm); //it's a polynomial in w^3
 	}
 	
 	
 	/**
 	 * the iterative algorithm specifically suggested by Lee for the inverse of 2sm(w/2)cm(w/2)
+	 * @param out - the number in which to put the result, which may not be z itself
 	 */
-	public static Complex invFunc(Complex z) {
-		Complex wi;
-		Complex wf = z; // TODO: I hear there's a rad new algorithm in town that can do this in a heartbeat (hopefully orders of maginutde faster
+	public static MutableComplex invFunc(MutableComplex z, MutableComplex out) {
+		final MutableComplex wi = new MutableComplex();
+		final MutableComplex lee = new MutableComplex();
+		out.set(z); // TODO: I hear there's a rad new algorithm in town that can do this in a heartbeat (hopefully orders of maginutde faster
 		
 		do {
-			wi = wf;
-			wf = z.plus(wi.minus(leeFunc(wi)));
-		} while (wf.minus(wi).abs() > TOLERANCE);
+			wi.set(out);
+			out.set(z).plus(wi).minus(leeFunc(wi, lee));
+		} while (Math.hypot(out.getRe()-wi.getRe(), out.getIm()-wi.getIm()) > TOLERANCE);
 		
-		return wf;
+		return out;
 	}
 
 }
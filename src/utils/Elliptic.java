@@ -23,33 +23,157 @@
  */
 package utils;
 
-import org.apache.commons.math3.complex.Complex;
-
 /**
- * Actually just the one incomplete integral. I honestly don't remember where I got this sequence from
+ * The incomplete elliptic integral of the first kind, by way of Carlson's symmetric form, which
+ * converges in a handful of duplication steps for any precision. Everything is done on pairs of
+ * doubles, and the result goes into a MutableComplex, so that nothing gets allocated on the way.
  * 
  * @author jkunimune
  */
 public class Elliptic {
-
-	public static final Complex F(Complex phi, final Complex k) { //series solution to incomplete elliptic integral of the first kind
-		final double TOLERANCE = 1e-3;
+	
+	public static final double DRAFT = 1e-4; //relative tolerances, for those who don't care too much
+	public static final double STANDARD = 1e-9;
+	public static final double EXACT = 1e-15;
+	
+	
+	
+	/**
+	 * The complete elliptic integral of the first kind.
+	 * @param k - The modulus, between 0 and 1.
+	 * @return K(k)
+	 */
+	public static final double K(double k) {
+		return RF(0, 0, 1-k*k, 0, 1, 0, EXACT, new MutableComplex()).getRe();
+	}
+	
+	
+	/**
+	 * The incomplete elliptic integral of the first kind, F(phi|k^2), for complex phi.
+	 * @param phiRe - The real part of the amplitude.
+	 * @param phiIm - The imaginary part of the amplitude.
+	 * @param k - The modulus, between 0 and 1.
+	 * @param tolerance - The relative error that is acceptable.
+	 * @param out - The number in which to put the result.
+	 * @return out
+	 */
+	public static final MutableComplex F(double phiRe, double phiIm, double k, double tolerance,
+			MutableComplex out) {
+		final double n = Math.rint(phiRe/Math.PI); //F(phi + n*pi) = F(phi) + 2n*K, so bring phi near zero
+		phiRe -= n*Math.PI;
 		
-		Complex sum = Complex.ZERO;
-		Complex i_n = phi;
-		Complex delt;
+		final double cosh = Math.cosh(phiIm), sinh = Math.sinh(phiIm);
+		final double sinRe = Math.sin(phiRe)*cosh, sinIm = Math.cos(phiRe)*sinh;
+		final double cosRe = Math.cos(phiRe)*cosh, cosIm = -Math.sin(phiRe)*sinh;
+		final double m = k*k;
+		RF(cosRe*cosRe - cosIm*cosIm, 2*cosRe*cosIm,
+				1 - m*(sinRe*sinRe - sinIm*sinIm), -m*2*sinRe*sinIm,
+				1, 0, tolerance, out).times(sinRe, sinIm); //F(phi) = sin(phi)*R_F(cos^2(phi), 1 - k^2sin^2(phi), 1)
 		
-		int n = 0;
-		do {
-			if (n > 0)
-				i_n = i_n.multiply((2.0 * n - 1) / (2.0 * n))
-						.subtract(phi.cos().multiply(phi.sin().pow(2.0 * n - 1)).divide(2.0 * n));
-			delt = i_n.multiply(Math.abs(Math2.combine(-.5, n))).multiply(k.pow(2.0 * n));
-			sum = sum.add(delt);
-			n ++;
-		} while (delt.abs() > TOLERANCE);
+		if (n != 0) {
+			final double fRe = out.getRe(), fIm = out.getIm();
+			RF(0, 0, 1-m, 0, 1, 0, tolerance, out); //K(k)
+			out.set(fRe + 2*n*out.getRe(), fIm);
+		}
+		return out;
+	}
+	
+	
+	/**
+	 * The incomplete elliptic integral of the first kind of an arccosine, F(arccos(w)|k^2), which
+	 * comes up in conformal maps often enough, and which needs no trigonometry at all.
+	 * @param wRe - The real part of the cosine of the amplitude.
+	 * @param wIm - The imaginary part of the cosine of the amplitude.
+	 * @param k - The modulus, between 0 and 1.
+	 * @param tolerance - The relative error that is acceptable.
+	 * @param out - The number in which to put the result.
+	 * @return out
+	 */
+	public static final MutableComplex Farccos(double wRe, double wIm, double k, double tolerance,
+			MutableComplex out) {
+		final boolean reflect = wRe < 0; //F(phi) = 2K - F(pi - phi), and pi - arccos(w) = arccos(-w)
+		if (reflect) {
+			wRe = -wRe;
+			wIm = -wIm;
+		}
+		
+		final double m = k*k;
+		final double w2Re = wRe*wRe - wIm*wIm, w2Im = 2*wRe*wIm;
+		final double sinRe = sqrtRe(1 - w2Re, -w2Im), sinIm = sqrtIm(1 - w2Re, -w2Im, sinRe); //sin(arccos(w)) = sqrt(1 - w^2)
+		RF(w2Re, w2Im, 1 - m + m*w2Re, m*w2Im, 1, 0, tolerance, out).times(sinRe, sinIm);
 		
-		return sum;
+		if (reflect) {
+			final double fRe = out.getRe(), fIm = out.getIm();
+			RF(0, 0, 1-m, 0, 1, 0, tolerance, out); //K(k)
+			out.set(2*out.getRe() - fRe, -fIm);
+		}
+		return out;
+	}
+	
+	
+	/**
+	 * Carlson's symmetric elliptic integral of the first kind, R_F(x,y,z), by the duplication
+	 * theorem. At most one of the arguments may be zero, and none of them should be on the
+	 * negative real axis.
+	 * @param out - The number in which to put the result.
+	 * @return out
+	 */
+	public static final MutableComplex RF(double xRe, double xIm, double yRe, double yIm,
+			double zRe, double zIm, double tolerance, MutableComplex out) {
+		final double threshold = Math.pow(3*tolerance, 1/6.); //the error goes as the sixth power of how far apart they are
+		double aRe, aIm;
+		while (true) {
+			aRe = (xRe + yRe + zRe)/3;
+			aIm = (xIm + yIm + zIm)/3;
+			final double spread2 = Math.max(abs2(xRe-aRe, xIm-aIm),
+					Math.max(abs2(yRe-aRe, yIm-aIm), abs2(zRe-aRe, zIm-aIm)));
+			if (spread2 <= threshold*threshold*abs2(aRe, aIm))
+				break;
+			
+			final double sxRe = sqrtRe(xRe, xIm), sxIm = sqrtIm(xRe, xIm, sxRe);
+			final double syRe = sqrtRe(yRe, yIm), syIm = sqrtIm(yRe, yIm, syRe);
+			final double szRe = sqrtRe(zRe, zIm), szIm = sqrtIm(zRe, zIm, szRe);
+			final double lRe = sxRe*syRe - sxIm*syIm + syRe*szRe - syIm*szIm + szRe*sxRe - szIm*sxIm;
+			final double lIm = sxRe*syIm + sxIm*syRe + syRe*szIm + syIm*szRe + szRe*sxIm + szIm*sxRe;
+			xRe = (xRe + lRe)/4;	xIm = (xIm + lIm)/4;
+			yRe = (yRe + lRe)/4;	yIm = (yIm + lIm)/4;
+			zRe = (zRe + lRe)/4;	zIm = (zIm + lIm)/4;
+		}
+		
+		final double a2 = aRe*aRe + aIm*aIm; //now they're close enough to expand about their mean
+		final double XRe = 1 - (xRe*aRe + xIm*aIm)/a2, XIm = -(xIm*aRe - xRe*aIm)/a2;
+		final double YRe = 1 - (yRe*aRe + yIm*aIm)/a2, YIm = -(yIm*aRe - yRe*aIm)/a2;
+		final double ZRe = -XRe - YRe, ZIm = -XIm - YIm;
+		final double e2Re = XRe*YRe - XIm*YIm - (ZRe*ZRe - ZIm*ZIm);
+		final double e2Im = XRe*YIm + XIm*YRe - 2*ZRe*ZIm;
+		final double xyRe = XRe*YRe - XIm*YIm, xyIm = XRe*YIm + XIm*YRe;
+		final double e3Re = xyRe*ZRe - xyIm*ZIm, e3Im = xyRe*ZIm + xyIm*ZRe;
+		final double sRe = 1 - e2Re/10 + e3Re/14 + (e2Re*e2Re - e2Im*e2Im)/24
+				- 3*(e2Re*e3Re - e2Im*e3Im)/44;
+		final double sIm = -e2Im/10 + e3Im/14 + 2*e2Re*e2Im/24
+				- 3*(e2Re*e3Im + e2Im*e3Re)/44;
+		
+		final double saRe = sqrtRe(aRe, aIm), saIm = sqrtIm(aRe, aIm, saRe); //divide by sqrt(A)
+		final double sa2 = saRe*saRe + saIm*saIm;
+		return out.set((sRe*saRe + sIm*saIm)/sa2, (sIm*saRe - sRe*saIm)/sa2);
+	}
+	
+	
+	private static final double sqrtRe(double re, double im) { //the real part of the principal square root
+		if (re >= 0)
+			return Math.sqrt((Math.sqrt(abs2(re, im)) + re)/2);
+		else
+			return Math.abs(im)/2/Math.sqrt((Math.sqrt(abs2(re, im)) - re)/2);
+	}
+	
+	private static final double abs2(double re, double im) { //the square of the magnitude (cheaper than Math.hypot, and we don't need its overflow protection)
+		return re*re + im*im;
+	}
+	
+	private static final double sqrtIm(double re, double im, double sqrtRe) { //the imaginary part, given the real part
+		if (sqrtRe != 0)
+			return im/(2*sqrtRe);
+		else
+			return Math.sqrt(-re);
 	}
-
 }
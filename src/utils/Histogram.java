@@ -0,0 +1,127 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package utils;
+
+/**
+ * A histogram with evenly spaced bins over a fixed range. Histograms with the same bins can be
+ * filled separately, say one per thread, and then merged.
+ * 
+ * @author jkunimune
+ */
+public class Histogram {
+	
+	private final double min, max; //the centres of the first and last bins
+	private final long[] counts; //the number of values that rounded to each bin
+	private long total; //the number of finite values added, including the ones that fell outside
+	
+	
+	
+	/**
+	 * Make an empty histogram with bins centred on min, min+dx, ..., max-dx, max.
+	 * @param min - The centre of the first bin.
+	 * @param max - The centre of the last bin.
+	 * @param num - The number of bin widths between min and max (one less than the number of bins).
+	 */
+	public Histogram(double min, double max, int num) {
+		this.min = min;
+		this.max = max;
+		this.counts = new long[num+1];
+		this.total = 0;
+	}
+	
+	
+	public void add(double x) {
+		this.add(x, 1);
+	}
+	
+	public void add(double x, long count) {
+		if (!Double.isFinite(x)) 	return; //NaN means there was nothing there
+		final int i = this.binOf(x);
+		if (i >= 0)
+			counts[i] += count;
+		total += count;
+	}
+	
+	
+	/**
+	 * Add all of the values from another histogram with the same bins to this one.
+	 * @param that - The histogram to absorb.
+	 * @return this, for convenience.
+	 */
+	public Histogram merge(Histogram that) {
+		if (that.min != this.min || that.max != this.max || that.counts.length != this.counts.length)
+			throw new IllegalArgumentException("These histograms have different bins.");
+		for (int i = 0; i < counts.length; i ++)
+			this.counts[i] += that.counts[i];
+		this.total += that.total;
+		return this;
+	}
+	
+	
+	/**
+	 * Sort these values into coarser bins, as though each one was shifted first. Values are
+	 * treated as though they were at the centres of their current bins, so this is only exact
+	 * when the current bins are much finer than the new ones.
+	 * @param min - The centre of the first new bin.
+	 * @param max - The centre of the last new bin.
+	 * @param num - The number of bin widths between min and max.
+	 * @param shift - The amount to subtract from each value before rebinning it.
+	 * @return A new histogram with the same total.
+	 */
+	public Histogram rebin(double min, double max, int num, double shift) {
+		final Histogram output = new Histogram(min, max, num);
+		for (int i = 0; i < counts.length; i ++)
+			if (counts[i] > 0)
+				output.add(this.getBinCenter(i) - shift, counts[i]);
+		output.total = this.total; //values that were out of range here still count there
+		return output;
+	}
+	
+	
+	public int getNumBins() {
+		return counts.length;
+	}
+	
+	public double getBinCenter(int i) {
+		return (counts.length > 1) ? min + i*(max - min)/(counts.length - 1) : min;
+	}
+	
+	public long getCount(int i) {
+		return counts[i];
+	}
+	
+	public long getTotal() {
+		return total;
+	}
+	
+	public double getFraction(int i) { //the fraction of all values that fell in bin i
+		return (double)counts[i]/total;
+	}
+	
+	
+	private int binOf(double x) {
+		final double pos = Math.floor((x - min)/(max - min)*(counts.length - 1) + .5); //round to the nearest bin
+		return (pos >= 0 && pos < counts.length) ? (int)pos : -1; //-1 means out of range
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * The Jacobi elliptic functions sn, cn, and dn for a fixed modulus, by the descending Landen
+ * transformation (A&S 16.4). The arithmetic-geometric mean sequence only depends on the modulus,
+ * so it gets done once, up front, and each evaluation is then a handful of arcsines.
+ * 
+ * @author jkunimune
+ */
+public class Jacobi {
+	
+	public static final Jacobi LEMNISCATIC = new Jacobi(Math.sqrt(0.5)); //the modulus whose quarter periods are equal, as in the quincuncial projections
+	
+	private final double k; //the modulus
+	private final double[] ratios; //c_n/a_n for each step of the AGM
+	private final double scale; //2^N*a_N
+	private final Jacobi complement; //the functions with the complementary modulus, for the imaginary part
+	
+	
+	
+	public Jacobi(double k) {
+		this(k, null);
+	}
+	
+	private Jacobi(double k, Jacobi complement) {
+		this.k = k;
+		final double kp = Math.sqrt(1 - k*k);
+		
+		double a = 1, b = kp, c = k;
+		int n = 0;
+		final double[] ratios = new double[32];
+		while (Math.abs(c) > 1e-16*a && n < ratios.length-1) {
+			c = (a - b)/2;
+			final double aNext = (a + b)/2;
+			b = Math.sqrt(a*b);
+			a = aNext;
+			n ++;
+			ratios[n] = c/a;
+		}
+		this.ratios = Arrays.copyOf(ratios, n+1);
+		this.scale = Math.scalb(a, n);
+		
+		if (complement != null)
+			this.complement = complement;
+		else if (kp == k)
+			this.complement = this;
+		else
+			this.complement = new Jacobi(kp, this);
+	}
+	
+	
+	/**
+	 * @return The complete elliptic integral of the first kind for this modulus, the quarter period.
+	 */
+	public double K() {
+		return Math.scalb(Math.PI/scale, ratios.length-2);
+	}
+	
+	
+	/**
+	 * The Jacobi amplitude, am(u|k), for real u.
+	 */
+	public double am(double u) {
+		double phi = scale*u;
+		for (int n = ratios.length-1; n > 0; n --)
+			phi = (phi + Math.asin(ratios[n]*Math.sin(phi)))/2;
+		return phi;
+	}
+	
+	
+	/**
+	 * The Jacobi elliptic sine, sn(u|k), for complex u.
+	 * @param out - The number in which to put the result.
+	 * @return out
+	 */
+	public MutableComplex sn(double uRe, double uIm, MutableComplex out) {
+		final double phi = am(uRe), phi1 = complement.am(uIm);
+		final double s = Math.sin(phi), c = Math.cos(phi), d = Math.sqrt(1 - k*k*s*s);
+		final double s1 = Math.sin(phi1), c1 = Math.cos(phi1);
+		final double denom = c1*c1 + k*k*s*s*s1*s1; //A&S 16.21
+		return out.set(s*Math.sqrt(1 - complement.k*complement.k*s1*s1)/denom, c*d*s1*c1/denom);
+	}
+	
+	
+	/**
+	 * The Jacobi elliptic cosine, cn(u|k), for complex u.
+	 * @param out - The number in which to put the result.
+	 * @return out
+	 */
+	public MutableComplex cn(double uRe, double uIm, MutableComplex out) {
+		final double phi = am(uRe), phi1 = complement.am(uIm);
+		final double s = Math.sin(phi), c = Math.cos(phi), d = Math.sqrt(1 - k*k*s*s);
+		final double s1 = Math.sin(phi1), c1 = Math.cos(phi1);
+		final double d1 = Math.sqrt(1 - complement.k*complement.k*s1*s1);
+		final double denom = c1*c1 + k*k*s*s*s1*s1;
+		return out.set(c*c1/denom, -s*d*s1*d1/denom);
+	}
+	
+	
+	/**
+	 * The Jacobi delta amplitude, dn(u|k), for complex u.
+	 * @param out - The number in which to put the result.
+	 * @return out
+	 */
+	public MutableComplex dn(double uRe, double uIm, MutableComplex out) {
+		final double phi = am(uRe), phi1 = complement.am(uIm);
+		final double s = Math.sin(phi), c = Math.cos(phi), d = Math.sqrt(1 - k*k*s*s);
+		final double s1 = Math.sin(phi1), c1 = Math.cos(phi1);
+		final double d1 = Math.sqrt(1 - complement.k*complement.k*s1*s1);
+		final double denom = c1*c1 + k*k*s*s*s1*s1;
+		return out.set(d*c1*d1/denom, -k*k*s*c*s1/denom);
+	}
+
+}
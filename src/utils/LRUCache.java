@@ -0,0 +1,83 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A map that only remembers the so many things most recently asked of it, for caching results
+ * that are expensive to make. It may be shared between threads.
+ * 
+ * @author jkunimune
+ */
+public class LRUCache<K, V> {
+	
+	private final Map<K, V> map;
+	
+	
+	
+	public LRUCache(int capacity) {
+		this.map = new LinkedHashMap<K, V>(16, .75f, true) { //access order, so the eldest is the least recently used
+			private static final long serialVersionUID = 1L;
+			
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	
+	public synchronized V get(K key) {
+		return map.get(key);
+	}
+	
+	public synchronized void put(K key, V value) {
+		map.put(key, value);
+	}
+	
+	public synchronized int size() {
+		return map.size();
+	}
+	
+	
+	/**
+	 * Get the value for a key, making it if it's not there. The making happens outside of the
+	 * lock, so other threads aren't held up by it, at the risk of two threads occasionally making
+	 * the same thing at once.
+	 * @param key - The key.
+	 * @param factory - The function that makes a value for a key.
+	 * @return The value.
+	 */
+	public V computeIfAbsent(K key, Function<? super K, ? extends V> factory) {
+		final V cached = get(key);
+		if (cached != null)
+			return cached;
+		final V value = factory.apply(key);
+		put(key, value);
+		return value;
+	}
+
+}
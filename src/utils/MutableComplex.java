@@ -0,0 +1,233 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package utils;
+
+
+/**
+ * A complex number that changes in place, so that long chains of complex arithmetic don't leave
+ * a trail of garbage behind them. Every operation replaces this number with the result and
+ * returns it, so they can be chained.
+ * 
+ * @author jkunimune
+ */
+public class MutableComplex {
+	
+	private double re, im;
+	
+	public MutableComplex() {
+		this(0, 0);
+	}
+	
+	public MutableComplex(double re, double im) {
+		this.re = re;
+		this.im = im;
+	}
+	
+	public static MutableComplex fromPolar(double r, double arg) {
+		return new MutableComplex().setPolar(r, arg);
+	}
+	
+	public double getRe() {
+		return this.re;
+	}
+	
+	public double getIm() {
+		return this.im;
+	}
+	
+	public double abs() {
+		return Math.sqrt(abs2());
+	}
+	
+	public double abs2() { //the square of the magnitude, which is cheaper than the magnitude
+		return re*re + im*im;
+	}
+	
+	public double arg() {
+		return Math.atan2(im, re);
+	}
+	
+	public boolean isFinite() {
+		return Double.isFinite(re) && Double.isFinite(im);
+	}
+	
+	public MutableComplex set(double re, double im) {
+		this.re = re;
+		this.im = im;
+		return this;
+	}
+	
+	public MutableComplex set(MutableComplex z) {
+		return this.set(z.re, z.im);
+	}
+	
+	public MutableComplex setPolar(double r, double arg) {
+		return this.set(r*Math.cos(arg), r*Math.sin(arg));
+	}
+	
+	public MutableComplex plus(double re, double im) {
+		return this.set(this.re + re, this.im + im);
+	}
+	
+	public MutableComplex plus(MutableComplex z) {
+		return this.plus(z.re, z.im);
+	}
+	
+	public MutableComplex minus(double re, double im) {
+		return this.set(this.re - re, this.im - im);
+	}
+	
+	public MutableComplex minus(MutableComplex z) {
+		return this.minus(z.re, z.im);
+	}
+	
+	public MutableComplex times(double a) {
+		return this.set(a*re, a*im);
+	}
+	
+	public MutableComplex times(double re, double im) {
+		return this.set(this.re*re - this.im*im, this.re*im + this.im*re);
+	}
+	
+	public MutableComplex times(MutableComplex z) {
+		return this.times(z.re, z.im);
+	}
+	
+	public MutableComplex divide(double a) {
+		return this.set(re/a, im/a);
+	}
+	
+	public MutableComplex divide(double re, double im) {
+		final double d = re*re + im*im;
+		return this.set((this.re*re + this.im*im)/d, (this.im*re - this.re*im)/d);
+	}
+	
+	public MutableComplex divide(MutableComplex z) {
+		return this.divide(z.re, z.im);
+	}
+	
+	public MutableComplex negate() {
+		return this.set(-re, -im);
+	}
+	
+	public MutableComplex conjugate() {
+		return this.set(re, -im);
+	}
+	
+	public MutableComplex pow(int n) { //by repeated squaring, which is much faster than going through polar form
+		if (n < 0)
+			return this.pow(-n).reciprocal();
+		double pRe = 1, pIm = 0;
+		double bRe = re, bIm = im;
+		while (n > 0) {
+			if ((n&1) == 1) {
+				final double t = pRe*bRe - pIm*bIm;
+				pIm = pRe*bIm + pIm*bRe;
+				pRe = t;
+			}
+			final double t = bRe*bRe - bIm*bIm;
+			bIm = 2*bRe*bIm;
+			bRe = t;
+			n >>= 1;
+		}
+		return this.set(pRe, pIm);
+	}
+	
+	public MutableComplex pow(double n) {
+		return this.setPolar(Math.pow(abs(), n), n*arg());
+	}
+	
+	public MutableComplex reciprocal() {
+		final double d = abs2();
+		return this.set(re/d, -im/d);
+	}
+	
+	public MutableComplex exp() {
+		return this.setPolar(Math.exp(re), im);
+	}
+	
+	public MutableComplex log() {
+		return this.set(Math.log(abs()), arg());
+	}
+	
+	public MutableComplex sqrt() { //the principal square root
+		final double r = abs();
+		if (re >= 0) {
+			final double s = Math.sqrt((r + re)/2);
+			return this.set(s, (s != 0) ? im/(2*s) : 0);
+		}
+		else {
+			final double s = Math.sqrt((r - re)/2);
+			return this.set(Math.abs(im)/(2*s), Math.copySign(s, im));
+		}
+	}
+	
+	public MutableComplex acos() { //acos(z) = -i*log(z + i*sqrt(1 - z^2))
+		final double zRe = re, zIm = im;
+		this.set(1 - (zRe*zRe - zIm*zIm), -2*zRe*zIm).sqrt();
+		this.set(zRe - im, zIm + re).log();
+		return this.set(im, -re);
+	}
+	
+	/**
+	 * Evaluate a polynomial at a point by Horner's method, and put the result here.
+	 * @param re - The real parts of the coefficients, from the constant term up.
+	 * @param im - The imaginary parts of the coefficients, or null if they are all real.
+	 * @param z - The point at which to evaluate it.
+	 * @return this
+	 */
+	public MutableComplex polynomial(double[] re, double[] im, MutableComplex z) {
+		final double zRe = z.re, zIm = z.im; //in case z is this
+		double pRe = 0, pIm = 0;
+		for (int k = re.length-1; k >= 0; k --) {
+			final double t = pRe*zRe - pIm*zIm + re[k];
+			pIm = pRe*zIm + pIm*zRe + ((im != null) ? im[k] : 0);
+			pRe = t;
+		}
+		return this.set(pRe, pIm);
+	}
+	
+	/**
+	 * Evaluate the derivative of a polynomial at a point by Horner's method, and put the result here.
+	 * @param re - The real parts of the coefficients, from the constant term up.
+	 * @param im - The imaginary parts of the coefficients, or null if they are all real.
+	 * @param z - The point at which to evaluate it.
+	 * @return this
+	 */
+	public MutableComplex polynomialDerivative(double[] re, double[] im, MutableComplex z) {
+		final double zRe = z.re, zIm = z.im;
+		double pRe = 0, pIm = 0;
+		for (int k = re.length-1; k > 0; k --) {
+			final double t = pRe*zRe - pIm*zIm + k*re[k];
+			pIm = pRe*zIm + pIm*zRe + ((im != null) ? k*im[k] : 0);
+			pRe = t;
+		}
+		return this.set(pRe, pIm);
+	}
+	
+	public String toString() {
+		return "MutableComplex("+re+", "+im+")";
+	}
+
+}
@@ -33,9 +33,43 @@ import java.util.function.DoubleUnaryOperator;
  * @author jkunimune
  */
 public class NumericalAnalysis {
-
+	
+	private static final int MAX_DEPTH = 24; //the most times an adaptive integrator will bisect an interval
+	
+	private static final double[] KRONROD_NODES = { //the 15-point Kronrod abscissae, from the outside in
+			0.991455371120812639206854697526329, 0.949107912342758524526189684047851,
+			0.864864423359769072789712788640926, 0.741531185599394439863864773280788,
+			0.586087235467691130294144845693013, 0.405845151377397166906606412076961,
+			0.207784955007898467600689403773245, 0. };
+	private static final double[] KRONROD_WEIGHTS = {
+			0.022935322010529224963732008058970, 0.063092092629978553290700663189204,
+			0.104790010322250183839876322541518, 0.140653259715525918745189590510238,
+			0.169004726639267902826583426598550, 0.190350578064785409913256402421014,
+			0.204432940075298892414161999234649, 0.209482141084727828012999174891714 };
+	private static final double[] GAUSS_WEIGHTS = { //the 7-point Gauss weights, for the odd nodes above
+			0.129484966168869693270611432679082, 0.279705391489276667901467771423780,
+			0.381830050505118944950369775488975, 0.417959183673469387755102040816327 };
+	
+	private static final double[][] DORMAND_PRINCE_A = { //the Runge-Kutta matrix
+			{},
+			{1/5.},
+			{3/40., 9/40.},
+			{44/45., -56/15., 32/9.},
+			{19372/6561., -25360/2187., 64448/6561., -212/729.},
+			{9017/3168., -355/33., 46732/5247., 49/176., -5103/18656.},
+			{35/384., 0, 500/1113., 125/192., -2187/6784., 11/84.} };
+	private static final double[] DORMAND_PRINCE_C = {0, 1/5., 3/10., 4/5., 8/9., 1, 1};
+	private static final double[] DORMAND_PRINCE_E = { //the fifth-order weights minus the fourth-order ones
+			71/57600., 0, -71/16695., 71/1920., -17253/339200., 22/525., -1/40. };
+	private static final double[] DORMAND_PRINCE_D = { //the weights for the dense output polynomial
+			-12715105075./11282082432., 0, 87487479700./32700410799., -10690763975./1880347072.,
+			701980252875./199316789632., -1453857185./822651844., 69997945./29380423. };
+	
+	
 	/**
-	 * Performs a definite integral using Simpson's rule and a constant step size
+	 * Performs a definite integral using Simpson's rule and a constant step size. If you would
+	 * rather ask for a tolerance than a step size, use {@link #adaptiveSimpsonIntegrate} or
+	 * {@link #gaussKronrodIntegrate} instead.
 	 * @param a The start of the integration region
 	 * @param b The end of the integration region (must be greater than a)
 	 * @param f The integrand
@@ -47,7 +81,9 @@ public class NumericalAnalysis {
 	}
 	
 	/**
-	 * Performs a definite integral using Simpson's rule and a constant step size
+	 * Performs a definite integral using Simpson's rule and a constant step size. If you would
+	 * rather ask for a tolerance than a step size, use {@link #adaptiveSimpsonIntegrate} or
+	 * {@link #gaussKronrodIntegrate} instead.
 	 * @param a The start of the integration region
 	 * @param b The end of the integration region (must be greater than a)
 	 * @param f The integrand
@@ -68,7 +104,117 @@ public class NumericalAnalysis {
 	
 	
 	/**
-	 * Solves a simple ODE using Simpson's rule and a constant step size
+	 * Performs a definite integral using Simpson's rule, bisecting the region wherever the
+	 * estimate is not yet good enough
+	 * @param a The start of the integration region
+	 * @param b The end of the integration region (must be greater than a)
+	 * @param f The integrand
+	 * @param tolerance The maximum absolute error to allow
+	 * @return \int_a^b \! f(x) \, \mathrm{d}x, or NaN if it can't be found to within the tolerance
+	 * 			(e.g. because of a singularity)
+	 */
+	public static final double adaptiveSimpsonIntegrate(double a, double b, DoubleUnaryOperator f, double tolerance) {
+		return adaptiveSimpsonIntegrate(a, b, (x,consts) -> f.applyAsDouble(x), tolerance);
+	}
+	
+	/**
+	 * Performs a definite integral using Simpson's rule, bisecting the region wherever the
+	 * estimate is not yet good enough
+	 * @param a The start of the integration region
+	 * @param b The end of the integration region (must be greater than a)
+	 * @param f The integrand
+	 * @param tolerance The maximum absolute error to allow
+	 * @param constants Constant parameters for the function
+	 * @return \int_a^b \! f(x) \, \mathrm{d}x, or NaN if it can't be found to within the tolerance
+	 * 			(e.g. because of a singularity)
+	 */
+	public static final double adaptiveSimpsonIntegrate(double a, double b, ScalarFunction f, double tolerance, double... constants) {
+		final double fa = f.evaluate(a, constants), fm = f.evaluate((a+b)/2, constants), fb = f.evaluate(b, constants);
+		return adaptiveSimpsonIntegrate(a, b, fa, fm, fb, (b-a)/6*(fa + 4*fm + fb),
+				f, tolerance, MAX_DEPTH, constants);
+	}
+	
+	private static final double adaptiveSimpsonIntegrate(double a, double b, double fa, double fm, double fb,
+			double whole, ScalarFunction f, double tolerance, int depth, double[] constants) { //integrate one piece whose ends and middle are already known
+		final double m = (a+b)/2;
+		final double flm = f.evaluate((a+m)/2, constants), frm = f.evaluate((m+b)/2, constants);
+		final double left = (m-a)/6*(fa + 4*flm + fm), right = (b-m)/6*(fm + 4*frm + fb);
+		final double error = (left + right - whole)/15; //the halves are sixteen times closer than the whole
+		if (!Double.isFinite(error)) //no amount of bisection will fix a NaN
+			return Double.NaN;
+		else if (Math.abs(error) <= tolerance)
+			return left + right + error; //Richardson extrapolation gets one more order for free
+		else if (depth <= 0) //if it's still not good enough this far down, it never will be
+			return Double.NaN;
+		else
+			return adaptiveSimpsonIntegrate(a, m, fa, flm, fm, left, f, tolerance/2, depth-1, constants)
+					+ adaptiveSimpsonIntegrate(m, b, fm, frm, fb, right, f, tolerance/2, depth-1, constants);
+	}
+	
+	
+	/**
+	 * Performs a definite integral using the 7-point Gauss and 15-point Kronrod rules, bisecting
+	 * the region wherever the two disagree by more than the tolerance. This needs far fewer
+	 * evaluations than Simpson's rule for smooth integrands.
+	 * @param a The start of the integration region
+	 * @param b The end of the integration region (must be greater than a)
+	 * @param f The integrand
+	 * @param tolerance The maximum absolute error to allow
+	 * @return \int_a^b \! f(x) \, \mathrm{d}x, or NaN if it can't be found to within the tolerance
+	 * 			(e.g. because of a singularity)
+	 */
+	public static final double gaussKronrodIntegrate(double a, double b, DoubleUnaryOperator f, double tolerance) {
+		return gaussKronrodIntegrate(a, b, (x,consts) -> f.applyAsDouble(x), tolerance);
+	}
+	
+	/**
+	 * Performs a definite integral using the 7-point Gauss and 15-point Kronrod rules, bisecting
+	 * the region wherever the two disagree by more than the tolerance. This needs far fewer
+	 * evaluations than Simpson's rule for smooth integrands.
+	 * @param a The start of the integration region
+	 * @param b The end of the integration region (must be greater than a)
+	 * @param f The integrand
+	 * @param tolerance The maximum absolute error to allow
+	 * @param constants Constant parameters for the function
+	 * @return \int_a^b \! f(x) \, \mathrm{d}x, or NaN if it can't be found to within the tolerance
+	 * 			(e.g. because of a singularity)
+	 */
+	public static final double gaussKronrodIntegrate(double a, double b, ScalarFunction f, double tolerance, double... constants) {
+		return gaussKronrodIntegrate(a, b, f, tolerance, MAX_DEPTH, constants);
+	}
+	
+	private static final double gaussKronrodIntegrate(double a, double b, ScalarFunction f,
+			double tolerance, int depth, double[] constants) {
+		final double center = (a+b)/2, halfWidth = (b-a)/2;
+		double kronrod = 0, gauss = 0;
+		for (int i = 0; i < KRONROD_NODES.length; i ++) {
+			final double fx;
+			if (KRONROD_NODES[i] == 0)
+				fx = f.evaluate(center, constants);
+			else
+				fx = f.evaluate(center - halfWidth*KRONROD_NODES[i], constants)
+						+ f.evaluate(center + halfWidth*KRONROD_NODES[i], constants);
+			kronrod += KRONROD_WEIGHTS[i]*fx;
+			if (i%2 == 1) //every other node is also a Gauss node
+				gauss += GAUSS_WEIGHTS[i/2]*fx;
+		}
+		kronrod *= halfWidth;
+		gauss *= halfWidth;
+		if (!Double.isFinite(kronrod - gauss)) //no amount of bisection will fix a NaN
+			return Double.NaN;
+		else if (Math.abs(kronrod - gauss) <= tolerance)
+			return kronrod;
+		else if (depth <= 0) //if it's still not good enough this far down, it never will be
+			return Double.NaN;
+		else
+			return gaussKronrodIntegrate(a, center, f, tolerance/2, depth-1, constants)
+					+ gaussKronrodIntegrate(center, b, f, tolerance/2, depth-1, constants);
+	}
+	
+	
+	/**
+	 * Solves a simple ODE using Simpson's rule and a constant step size. If you would rather ask
+	 * for a tolerance than a step size, use {@link #dormandPrinceODESolve} instead.
 	 * @param T The maximum time value at which to sample (must be positive)
 	 * @param n The desired number of spaces (or the number of samples minus 1)
 	 * @param f The derivative of y with respect to time
@@ -80,7 +226,8 @@ public class NumericalAnalysis {
 	}
 	
 	/**
-	 * Solves a simple ODE using Simpson's rule and a constant step size
+	 * Solves a simple ODE using Simpson's rule and a constant step size. If you would rather ask
+	 * for a tolerance than a step size, use {@link #dormandPrinceODESolve} instead.
 	 * @param T The maximum time value at which to sample (must be positive)
 	 * @param n The desired number of spaces (or the number of samples minus 1)
 	 * @param f The derivative of y with respect to time
@@ -106,6 +253,78 @@ public class NumericalAnalysis {
 	}
 	
 	
+	/**
+	 * Solves a simple ODE using the Dormand-Prince method, choosing each step to keep the local
+	 * error within the tolerance
+	 * @param T The maximum time value at which to sample (must be positive)
+	 * @param n The desired number of spaces (or the number of samples minus 1)
+	 * @param f The derivative of y with respect to time
+	 * @param tolerance The maximum absolute error to allow in each step
+	 * @return the double[] y, where y[i] is the value of y at t=i*T/n, and y[0] is 0
+	 */
+	public static final double[] dormandPrinceODESolve(double T, int n, DoubleUnaryOperator f, double tolerance) {
+		return dormandPrinceODESolve(T, n, 0, (t,y,consts) -> f.applyAsDouble(t), tolerance);
+	}
+	
+	/**
+	 * Solves an ODE using the Dormand-Prince method, choosing each step to keep the local error
+	 * within the tolerance. The samples come from the method's dense output, so they do not
+	 * constrain the step size.
+	 * @param T The maximum time value at which to sample (must be positive)
+	 * @param n The desired number of spaces (or the number of samples minus 1)
+	 * @param y0 The value of y at t=0
+	 * @param f The derivative of y in terms of time and y
+	 * @param tolerance The maximum absolute error to allow in each step
+	 * @param constants Constant parameters for the function
+	 * @return the double[] y, where y[i] is the value of y at t=i*T/n
+	 */
+	public static final double[] dormandPrinceODESolve(double T, int n, double y0, VectorFunction f,
+			double tolerance, double... constants) {
+		final double[] y = new double[n+1]; //the output
+		y[0] = y0;
+		final double[] k = new double[7]; //the stages
+		double t = 0, yt = y0;
+		k[0] = f.evaluate(t, yt, constants);
+		double h = T/Math.max(n, 1); //start with one step per sample; it will adjust quickly
+		int i = 1;
+		while (i <= n) {
+			if (t + h > T) 	h = T - t;
+			for (int s = 1; s < 7; s ++) {
+				double ys = yt;
+				for (int r = 0; r < s; r ++)
+					ys += h*DORMAND_PRINCE_A[s][r]*k[r];
+				k[s] = f.evaluate(t + DORMAND_PRINCE_C[s]*h, ys, constants);
+			}
+			double ynew = yt, error = 0, dense = 0;
+			for (int s = 0; s < 7; s ++) {
+				if (s < 6) 	ynew += h*DORMAND_PRINCE_A[6][s]*k[s];
+				error += h*DORMAND_PRINCE_E[s]*k[s];
+				dense += h*DORMAND_PRINCE_D[s]*k[s];
+			}
+			final double ratio = Math.abs(error)/tolerance;
+			if (!Double.isFinite(ratio) || !Double.isFinite(ynew) || !(t + h > t)) { //no step size will fix a NaN, and a vanishing step will never finish
+				Arrays.fill(y, i, n+1, Double.NaN);
+				break;
+			}
+			
+			if (ratio <= 1 || h <= Math.ulp(t)) { //accept the step
+				final double slope = h*k[0] - (ynew - yt);
+				final double curvature = (ynew - yt) - h*k[6] - slope;
+				while (i <= n && i*T/n <= t + h) { //and read off any samples it passed
+					final double th = (i*T/n - t)/h;
+					y[i] = yt + th*((ynew - yt) + (1-th)*(slope + th*(curvature + (1-th)*dense)));
+					i ++;
+				}
+				t += h;
+				yt = ynew;
+				k[0] = k[6]; //the last stage is the first stage of the next step
+			}
+			h *= Math.min(5, Math.max(0.2, 0.9*Math.pow(ratio, -0.2))); //either way, adjust the step size
+		}
+		return y;
+	}
+	
+	
 	/**
 	 * Applies Newton's method in one dimension to solve for x such that f(x)=y
 	 * @param y Desired value for f
@@ -0,0 +1,88 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package utils;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleBiFunction;
+import java.util.stream.IntStream;
+
+/**
+ * A function of a parameter vector that needs some mutable state to evaluate, like a projection
+ * whose parameters get set. Each thread gets its own copy of the state, so batches of inputs can
+ * be evaluated in parallel. The answers come back in the order the inputs went in, and each one
+ * depends only on its input, so the results are the same no matter how many threads there are.
+ * 
+ * @param <T> The type of the state each thread needs.
+ * @author jkunimune
+ */
+public class ParallelObjective<T> {
+	
+	private final ThreadLocal<T> workers; //each thread's copy of the state
+	private final ToDoubleBiFunction<T, double[]> function;
+	private final LongAdder numEvaluations; //the number of times function has been called
+	private final LongAdder evaluationTime; //the total time spent in function, in nanoseconds
+	
+	
+	
+	/**
+	 * @param workerFactory - Makes a fresh copy of the state for each thread that needs one.
+	 * @param function - Evaluates the objective at a point, using (and perhaps modifying) a copy
+	 * 		of the state.
+	 */
+	public ParallelObjective(Supplier<T> workerFactory, ToDoubleBiFunction<T, double[]> function) {
+		this.workers = ThreadLocal.withInitial(workerFactory);
+		this.function = function;
+		this.numEvaluations = new LongAdder();
+		this.evaluationTime = new LongAdder();
+	}
+	
+	
+	public double apply(double[] x) {
+		final long start = System.nanoTime();
+		final double value = function.applyAsDouble(workers.get(), x);
+		evaluationTime.add(System.nanoTime() - start);
+		numEvaluations.increment();
+		return value;
+	}
+	
+	
+	/**
+	 * Evaluate the objective at a bunch of points at once.
+	 * @param xs - The points at which to evaluate it.
+	 * @return The value at each point, in the same order.
+	 */
+	public double[] applyAll(double[][] xs) {
+		return IntStream.range(0, xs.length).parallel().mapToDouble((i) -> apply(xs[i])).toArray();
+	}
+	
+	
+	public long getNumEvaluations() {
+		return numEvaluations.sum();
+	}
+	
+	public double getEvaluationTime() { //the total time spent evaluating, summed over threads, in seconds
+		return evaluationTime.sum()/1e9;
+	}
+}
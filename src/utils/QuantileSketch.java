@@ -0,0 +1,176 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A KLL sketch, which estimates quantiles of a stream of values in a small, bounded amount of
+ * memory. Values go into a stack of compactors; whenever one fills up, it gets sorted and every
+ * other value moves up a level with twice the weight. Compactors alternate which half they keep
+ * rather than flipping a coin, so the same values added and merged in the same order always give
+ * the same answers.
+ * 
+ * @author jkunimune
+ */
+public class QuantileSketch {
+	
+	private static final double DECAY = 2/3.; //the ratio between the capacities of successive compactors
+	private static final int MIN_CAPACITY = 2;
+	
+	private final int k; //the capacity of the top compactor, which sets the accuracy (error ~ 1/k)
+	private final List<Compactor> levels; //the compactors; values in level h weigh 2^h
+	private long count; //the number of values added
+	
+	
+	
+	public QuantileSketch() {
+		this(512);
+	}
+	
+	public QuantileSketch(int k) {
+		this.k = k;
+		this.levels = new ArrayList<Compactor>();
+		this.levels.add(new Compactor());
+		this.count = 0;
+	}
+	
+	
+	public void add(double x) {
+		if (Double.isNaN(x)) 	return;
+		levels.get(0).add(x);
+		count ++;
+		if (levels.get(0).size >= capacity(0))
+			compress();
+	}
+	
+	
+	/**
+	 * Add all of the values from another sketch to this one.
+	 * @param that - The sketch to absorb. It is not modified.
+	 * @return this, for convenience.
+	 */
+	public QuantileSketch merge(QuantileSketch that) {
+		while (levels.size() < that.levels.size())
+			levels.add(new Compactor());
+		for (int h = 0; h < that.levels.size(); h ++) {
+			final Compactor source = that.levels.get(h);
+			for (int i = 0; i < source.size; i ++)
+				levels.get(h).add(source.items[i]);
+		}
+		count += that.count;
+		compress();
+		return this;
+	}
+	
+	
+	/**
+	 * Estimate the value below which a given fraction of the values fall.
+	 * @param q - The fraction, between 0 and 1.
+	 * @return The approximate q-quantile, or NaN if nothing has been added.
+	 */
+	public double quantile(double q) {
+		int n = 0;
+		for (Compactor level: levels)
+			n += level.size;
+		if (n == 0) 	return Double.NaN;
+		
+		final double[] values = new double[n];
+		final long[] weights = new long[n];
+		final Integer[] order = new Integer[n];
+		int j = 0;
+		for (int h = 0; h < levels.size(); h ++) {
+			for (int i = 0; i < levels.get(h).size; i ++) {
+				values[j] = levels.get(h).items[i];
+				weights[j] = 1L << h;
+				order[j] = j;
+				j ++;
+			}
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+		
+		long totalWeight = 0;
+		for (long w: weights)
+			totalWeight += w;
+		final double target = q*totalWeight;
+		long cumWeight = 0;
+		for (int i = 0; i < n; i ++) { //walk up the sorted values until we pass the target rank
+			cumWeight += weights[order[i]];
+			if (cumWeight >= target)
+				return values[order[i]];
+		}
+		return values[order[n-1]];
+	}
+	
+	
+	public long getCount() {
+		return count;
+	}
+	
+	
+	private void compress() { //compact every level that is over capacity, from the bottom up
+		for (int h = 0; h < levels.size(); h ++) {
+			if (levels.get(h).size >= capacity(h)) {
+				if (h+1 == levels.size())
+					levels.add(new Compactor());
+				levels.get(h).compactInto(levels.get(h+1));
+			}
+		}
+	}
+	
+	
+	private int capacity(int h) { //the top level holds k; each one below holds 2/3 as much
+		final int depth = levels.size() - 1 - h;
+		return Math.max(MIN_CAPACITY, (int)Math.ceil(k*Math.pow(DECAY, depth)));
+	}
+	
+	
+	
+	private static class Compactor {
+		
+		private double[] items = new double[8];
+		private int size = 0;
+		private boolean keepOdds = false; //which half of the items to promote next time
+		
+		private void add(double x) {
+			if (size == items.length)
+				items = Arrays.copyOf(items, 2*size);
+			items[size] = x;
+			size ++;
+		}
+		
+		private void compactInto(Compactor above) { //promote every other item, and discard the rest
+			Arrays.sort(items, 0, size);
+			final int end = size - size%2; //an odd item out stays here for next time
+			for (int i = keepOdds ? 1 : 0; i < end; i += 2)
+				above.add(items[i]);
+			if (end < size)
+				items[0] = items[size-1];
+			size = size - end;
+			keepOdds = !keepOdds;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 Justin Kunimune
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package utils;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A static R-tree of axis-aligned boxes, packed with the Sort-Tile-Recursive algorithm. It gets
+ * built once, all at once, and then answers "what might overlap this box?" in logarithmic time.
+ * 
+ * @author jkunimune
+ */
+public class RTree {
+	
+	private static final int NODE_CAPACITY = 16; //the maximum number of children per node
+	
+	private final double[] bounds; //{minX, minY, maxX, maxY} of every item and then of every node, level by level
+	private final int[] indices; //the original index of each item, or the position of each node's first child
+	private final int[] levelEnds; //the position after the last node in each level, starting with the items
+	
+	
+	
+	/**
+	 * Build a tree around these boxes.
+	 * @param boxes - The {minX, minY, maxX, maxY} of each item. Empty items may have minima
+	 * 		greater than their maxima; they will never be found.
+	 */
+	public RTree(double[][] boxes) {
+		final int n = boxes.length;
+		int size = n, levels = 1;
+		for (int m = n; m > 1; m = (m + NODE_CAPACITY - 1)/NODE_CAPACITY) { //count up the nodes
+			size += (m + NODE_CAPACITY - 1)/NODE_CAPACITY;
+			levels ++;
+		}
+		this.bounds = new double[4*size];
+		this.indices = new int[size];
+		this.levelEnds = new int[levels];
+		
+		final Integer[] order = new Integer[n]; //sort the items into tiles
+		for (int i = 0; i < n; i ++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> Double.compare(
+				boxes[a][0] + boxes[a][2], boxes[b][0] + boxes[b][2])); //first into vertical slices by x
+		final int numLeaves = (n + NODE_CAPACITY - 1)/NODE_CAPACITY;
+		final int sliceSize = NODE_CAPACITY*(int)Math.ceil(Math.sqrt(numLeaves));
+		for (int i = 0; i < n; i += sliceSize) //then sort each slice by y
+			Arrays.sort(order, i, Math.min(i + sliceSize, n), (a, b) -> Double.compare(
+					boxes[a][1] + boxes[a][3], boxes[b][1] + boxes[b][3]));
+		for (int i = 0; i < n; i ++) {
+			System.arraycopy(boxes[order[i]], 0, bounds, 4*i, 4);
+			indices[i] = order[i];
+		}
+		
+		int levelStart = 0, levelEnd = n; //then pack each level into the one above it
+		levelEnds[0] = n;
+		for (int l = 1; l < levels; l ++) {
+			int pos = levelEnd;
+			for (int child = levelStart; child < levelEnd; child += NODE_CAPACITY) {
+				double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+				double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+				for (int c = child; c < Math.min(child + NODE_CAPACITY, levelEnd); c ++) {
+					minX = Math.min(minX, bounds[4*c+0]);
+					minY = Math.min(minY, bounds[4*c+1]);
+					maxX = Math.max(maxX, bounds[4*c+2]);
+					maxY = Math.max(maxY, bounds[4*c+3]);
+				}
+				bounds[4*pos+0] = minX;
+				bounds[4*pos+1] = minY;
+				bounds[4*pos+2] = maxX;
+				bounds[4*pos+3] = maxY;
+				indices[pos] = child;
+				pos ++;
+			}
+			levelStart = levelEnd;
+			levelEnd = pos;
+			levelEnds[l] = levelEnd;
+		}
+	}
+	
+	
+	
+	/**
+	 * Call visitor on the index of every item whose box overlaps the given box, in no particular
+	 * order.
+	 */
+	public void search(double minX, double minY, double maxX, double maxY, IntConsumer visitor) {
+		if (indices.length == 0)
+			return;
+		final int[] stack = new int[2*NODE_CAPACITY*levelEnds.length]; //pairs of {position, level}
+		int top = 0;
+		stack[top++] = indices.length - 1; //start at the root
+		stack[top++] = levelEnds.length - 1;
+		while (top > 0) {
+			final int level = stack[--top];
+			final int pos = stack[--top];
+			if (!overlaps(pos, minX, minY, maxX, maxY))
+				continue;
+			if (level == 0) {
+				visitor.accept(indices[pos]);
+			}
+			else {
+				final int end = Math.min(indices[pos] + NODE_CAPACITY, levelEnds[level-1]);
+				for (int c = indices[pos]; c < end; c ++) {
+					stack[top++] = c;
+					stack[top++] = level - 1;
+				}
+			}
+		}
+	}
+	
+	
+	public int size() {
+		return levelEnds[0];
+	}
+	
+	
+	private boolean overlaps(int pos, double minX, double minY, double maxX, double maxY) {
+		return bounds[4*pos+0] <= maxX && bounds[4*pos+2] >= minX
+				&& bounds[4*pos+1] <= maxY && bounds[4*pos+3] >= minY;
+	}
+}